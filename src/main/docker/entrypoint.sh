@@ -4,25 +4,37 @@
 ADMIN_PASSWORD=${ADMIN_PASSWORD:-}
 BAGDB_PATH=${BAGDB_PATH:-}
 BING_KEY=${BING_KEY:-}
+DATABASE_THREADS=${DATABASE_THREADS:-4}
 DB_DRIVER=${DB_DRIVER:-org.hsqldb.jdbcDriver}
 DB_PASS=${DB_PASS:-}
 DB_URL=${DB_URL:-jdbc:hsqldb:mem:testdb}
 DB_USER=${DB_USER:-sa}
 DEBUG_JAVASCRIPT=${DEBUG_JAVASCRIPT:-false}
 DOCKER_HOST=${DOCKER_HOST:-}
+EXTRACT_THREADS=${EXTRACT_THREADS:-0}
 FASTER_CODEC=${FASTER_CODEC:-false}
+FINGERPRINT_THREADS=${FINGERPRINT_THREADS:-0}
+GAZETTEER_PATH=${GAZETTEER_PATH:-}
+GEOCODE_REQUESTS_PER_SECOND=${GEOCODE_REQUESTS_PER_SECOND:-10}
+GEOCODE_THREADS=${GEOCODE_THREADS:-4}
 GOOGLE_API_KEY=${GOOGLE_API_KEY:-}
+GPS_PATH_TOLERANCES="[${GPS_PATH_TOLERANCES-20.0, 5.0, 0.0}]"
 GPS_TOPICS='['`echo ${GPS_TOPICS} | perl -pe 's#([/\w+]+)#"\1"#g'`']'
+INGEST_QUEUE_SIZE=${INGEST_QUEUE_SIZE:-64}
 LDAP_BINDDN=${LDAP_BINDDN:-}
 LDAP_BIND_PASSWORD=${LDAP_BIND_PASSWORD:-}
 LDAP_SEARCH_BASE=${LDAP_SEARCH_BASE:-}
 LDAP_SERVER=${LDAP_SERVER:-}
 LDAP_USER_PATTERN=${LDAP_USER_PATTERN:-}
 METADATA_TOPICS='['`echo ${METADATA_TOPICS} | perl -pe 's#([/\w+]+)#"\1"#g'`']'
+PARALLEL_DISCOVERY=${PARALLEL_DISCOVERY:-true}
 SCRIPT_TMP_PATH=${SCRIPT_TMP_PATH:-/scripts}
+SEARCH_CACHE_SIZE=${SEARCH_CACHE_SIZE:-10000}
+SEARCH_MODE=${SEARCH_MODE:-index}
 TILE_HEIGHT_PX=${TILE_HEIGHT_PX-256}
 TILE_MAP_URL=${TILE_MAP_URL-"http://{a-d}.tile.stamen.com/terrain/{z}/{x}/{y}.jpg"}
 TILE_WIDTH_PX=${TILE_WIDTH_PX-256}
+UPDATER_THREADS=${UPDATER_THREADS:-0}
 USE_BING=${USE_BING:-false}
 USE_MAPQUEST=${USE_MAPQUEST:-true}
 USE_TILE_MAP=${USE_TILE_MAP:-true}
@@ -36,12 +48,20 @@ then
     echo "!com.github.swrirobotics.support.web.Configuration
 adminPassword: ${ADMIN_PASSWORD}
 bingKey: ${BING_KEY}
+databaseThreads: ${DATABASE_THREADS}
 debugJavascript: ${DEBUG_JAVASCRIPT}
 dockerHost: ${DOCKER_HOST}
 driver: ${DB_DRIVER}
+extractThreads: ${EXTRACT_THREADS}
 fasterCodec: ${FASTER_CODEC}
+fingerprintThreads: ${FINGERPRINT_THREADS}
+gazetteerPath: ${GAZETTEER_PATH}
+geocodeRequestsPerSecond: ${GEOCODE_REQUESTS_PER_SECOND}
+geocodeThreads: ${GEOCODE_THREADS}
 googleApiKey: ${GOOGLE_API_KEY}
+gpsPathTolerances: ${GPS_PATH_TOLERANCES}
 gpsTopics: ${GPS_TOPICS}
+ingestQueueSize: ${INGEST_QUEUE_SIZE}
 jdbcPassword: ${DB_PASS}
 jdbcUrl: ${DB_URL}
 jdbcUsername: ${DB_USER}
@@ -51,10 +71,14 @@ ldapSearchBase: ${LDAP_SEARCH_BASE}
 ldapServer: ${LDAP_SERVER}
 ldapUserPattern: ${LDAP_USER_PATTERN}
 metadataTopics: ${METADATA_TOPICS}
+parallelDiscovery: ${PARALLEL_DISCOVERY}
 scriptTmpPath: ${SCRIPT_TMP_PATH}
+searchCacheSize: ${SEARCH_CACHE_SIZE}
+searchMode: ${SEARCH_MODE}
 tileHeightPx: ${TILE_HEIGHT_PX}
 tileMapUrl: ${TILE_MAP_URL}
 tileWidthPx: ${TILE_WIDTH_PX}
+updaterThreads: ${UPDATER_THREADS}
 useBing: ${USE_BING}
 useMapQuest: ${USE_TILE_MAP}
 vehicleNameTopics: ${VEHICLE_NAME_TOPICS}
@@ -32,7 +32,10 @@ package com.github.swrirobotics.admin;
 
 import com.github.swrirobotics.account.Account;
 import com.github.swrirobotics.account.AccountRepository;
+import com.github.swrirobotics.bags.BagSearchCache;
+import com.github.swrirobotics.bags.BagSearchIndex;
 import com.github.swrirobotics.bags.BagService;
+import com.github.swrirobotics.bags.DerivedField;
 import com.github.swrirobotics.bags.filesystem.BagScanner;
 import com.github.swrirobotics.config.ConfigService;
 import com.github.swrirobotics.support.web.Configuration;
@@ -56,6 +59,8 @@ import org.springframework.web.bind.annotation.ResponseBody;
 
 import javax.annotation.PostConstruct;
 import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
 
 @Controller
 @RequestMapping("admin")
@@ -69,6 +74,10 @@ public class AdminController {
     @Autowired
     private BagService myBagService;
     @Autowired
+    private BagSearchIndex mySearchIndex;
+    @Autowired
+    private BagSearchCache mySearchCache;
+    @Autowired
     private AccountRepository myAccountRepository;
     @Autowired
     private ConfigService myConfigService;
@@ -86,7 +95,7 @@ public class AdminController {
             @Override
             protected void doInTransactionWithoutResult(TransactionStatus transactionStatus) {
                 Account account = myAccountRepository.findByEmail("admin");
-                Configuration config = myConfigService.getConfiguration();
+                Configuration config = myConfigService.getConfigurationCopy();
                 if (config != null ) {
                     String password = config.getAdminPassword();
                     if (account == null || (password != null && !password.isEmpty())) {
@@ -160,6 +169,27 @@ public class AdminController {
         myBagScanner.updateAllTags();
     }
 
+    @RequestMapping(value = "/reextract", method = RequestMethod.POST)
+    @ResponseBody
+    public void reextract(@RequestParam Set<DerivedField> fields) {
+        myLogger.trace("reextract: " + fields);
+        myBagScanner.reextractFields(fields);
+    }
+
+    @RequestMapping(value = "/rebuildSearchIndex", method = RequestMethod.POST)
+    @ResponseBody
+    public void rebuildSearchIndex() {
+        myLogger.trace("rebuildSearchIndex");
+        mySearchIndex.rebuild();
+    }
+
+    @RequestMapping(value = "/searchCacheStats", method = RequestMethod.GET)
+    @ResponseBody
+    public Map<String, Object> getSearchCacheStats() {
+        myLogger.trace("getSearchCacheStats");
+        return mySearchCache.getStats();
+    }
+
     @RequestMapping(value = "/removeMissingBags", method = RequestMethod.POST)
     @ResponseBody
     public void removeMissingBags() {
@@ -0,0 +1,246 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.bags;
+
+import com.github.swrirobotics.persistence.MessageType;
+import com.github.swrirobotics.persistence.Tag;
+import com.github.swrirobotics.persistence.Topic;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+
+/**
+ * Writes large numbers of rows that belong to a bag directly through JDBC
+ * using batched prepared statements.  This avoids creating an entity for
+ * every row and keeping all of them in the persistence context, which is
+ * very slow for bags that have hundreds of thousands of GPS positions.
+ *
+ * <p>Rows written here are not attached to any {@link com.github.swrirobotics.persistence.Bag}
+ * entities that are already loaded.
+ */
+@Component
+public class BagBulkWriter {
+    @PersistenceContext
+    private EntityManager myEM;
+
+    private static final int BATCH_SIZE = 1000;
+
+    // This must be equal to the allocationSize of BagPosition's ID generator
+    // and the incrementBy value of the sequence in db.changelog-1.6.yaml.
+    private static final int POSITION_ID_BLOCK_SIZE = 100;
+
+    private static final Logger myLogger = LoggerFactory.getLogger(BagBulkWriter.class);
+
+    /**
+     * Inserts GPS positions for a bag.
+     * @param bagId The ID of the bag the positions belong to.
+     * @param positions The positions to insert.
+     */
+    @Transactional
+    public void insertGpsPositions(final long bagId, final Collection<GpsPosition> positions) {
+        if (positions.isEmpty()) {
+            return;
+        }
+
+        myEM.unwrap(Session.class).doWork(connection -> {
+            // On PostgreSQL, IDs come from a sequence that Hibernate also uses,
+            // and Hibernate treats each value it gets from the sequence as the
+            // end of a block of IDs.  We have to do the same thing to avoid
+            // overlapping with it.  H2 just uses an identity column.
+            boolean isPostgres = isPostgres(connection);
+            String sql = isPostgres ?
+                    "INSERT INTO bag_positions (id, bagid, positiontime, detaillevel, position) " +
+                            "VALUES (?, ?, ?, ?, ST_SetSRID(ST_MakePoint(?, ?), 4326))" :
+                    "INSERT INTO bag_positions (bagid, positiontime, detaillevel, position) " +
+                            "VALUES (?, ?, ?, ST_SetSRID(ST_MakePoint(?, ?), 4326))";
+
+            try (PreparedStatement insert = connection.prepareStatement(sql);
+                 PreparedStatement nextId = isPostgres ?
+                         connection.prepareStatement("SELECT nextval('bag_positions_id_seq')") : null) {
+                long id = 0;
+                long lastIdInBlock = -1;
+                int batchCount = 0;
+                for (GpsPosition pos : positions) {
+                    int col = 1;
+                    if (isPostgres) {
+                        if (id > lastIdInBlock) {
+                            lastIdInBlock = getNextSequenceValue(nextId);
+                            id = Math.max(1, lastIdInBlock - POSITION_ID_BLOCK_SIZE + 1);
+                        }
+                        insert.setLong(col++, id++);
+                    }
+                    insert.setLong(col++, bagId);
+                    insert.setTimestamp(col++, pos.stamp);
+                    insert.setInt(col++, pos.detailLevel);
+                    insert.setDouble(col++, pos.longitude);
+                    insert.setDouble(col, pos.latitude);
+                    insert.addBatch();
+                    batchCount = executeIfFull(insert, batchCount + 1);
+                }
+                if (batchCount > 0) {
+                    insert.executeBatch();
+                }
+            }
+        });
+        myLogger.debug("Inserted " + positions.size() + " GPS positions for bag " + bagId + ".");
+    }
+
+    /**
+     * Links message types to a bag that was just added to the database.
+     * None of them may be linked to it yet.
+     * @param bagId The ID of the bag that uses the message types.
+     * @param messageTypes The message types to link; they must already exist.
+     */
+    @Transactional
+    public void insertMessageTypes(final long bagId, final Collection<MessageType> messageTypes) {
+        if (messageTypes.isEmpty()) {
+            return;
+        }
+
+        myEM.unwrap(Session.class).doWork(connection -> {
+            String sql = "INSERT INTO bag_message_types (bag_id, message_type_name, message_type_md5sum) " +
+                    "VALUES (?, ?, ?)";
+            try (PreparedStatement insert = connection.prepareStatement(sql)) {
+                int batchCount = 0;
+                for (MessageType messageType : messageTypes) {
+                    insert.setLong(1, bagId);
+                    insert.setString(2, messageType.getName());
+                    insert.setString(3, messageType.getMd5sum());
+                    insert.addBatch();
+                    batchCount = executeIfFull(insert, batchCount + 1);
+                }
+                if (batchCount > 0) {
+                    insert.executeBatch();
+                }
+            }
+        });
+        myLogger.debug("Inserted " + messageTypes.size() + " message types for bag " + bagId + ".");
+    }
+
+    /**
+     * Inserts topics for a bag that was just added to the database.  None of
+     * them may exist yet.
+     * @param bagId The ID of the bag the topics belong to.
+     * @param topics The topics to insert; their message types must already exist.
+     */
+    @Transactional
+    public void insertTopics(final long bagId, final Collection<Topic> topics) {
+        if (topics.isEmpty()) {
+            return;
+        }
+
+        myEM.unwrap(Session.class).doWork(connection -> {
+            String sql = "INSERT INTO topics (bagid, topicname, connectioncount, messagecount, " +
+                    "message_type_md5sum, message_type_name) VALUES (?, ?, ?, ?, ?, ?)";
+            try (PreparedStatement insert = connection.prepareStatement(sql)) {
+                int batchCount = 0;
+                for (Topic topic : topics) {
+                    insert.setLong(1, bagId);
+                    insert.setString(2, topic.getTopicName());
+                    insert.setLong(3, topic.getConnectionCount());
+                    insert.setLong(4, topic.getMessageCount());
+                    insert.setString(5, topic.getType().getMd5sum());
+                    insert.setString(6, topic.getType().getName());
+                    insert.addBatch();
+                    batchCount = executeIfFull(insert, batchCount + 1);
+                }
+                if (batchCount > 0) {
+                    insert.executeBatch();
+                }
+            }
+        });
+        myLogger.debug("Inserted " + topics.size() + " topics for bag " + bagId + ".");
+    }
+
+    /**
+     * Inserts tags for a bag that was just added to the database.  None of
+     * them may exist yet.
+     * @param bagId The ID of the bag the tags belong to.
+     * @param tags The tags to insert.
+     */
+    @Transactional
+    public void insertTags(final long bagId, final Collection<Tag> tags) {
+        if (tags.isEmpty()) {
+            return;
+        }
+
+        myEM.unwrap(Session.class).doWork(connection -> {
+            String sql = "INSERT INTO tags (bagid, tag, value) VALUES (?, ?, ?)";
+            try (PreparedStatement insert = connection.prepareStatement(sql)) {
+                int batchCount = 0;
+                for (Tag tag : tags) {
+                    insert.setLong(1, bagId);
+                    insert.setString(2, tag.getTag());
+                    insert.setString(3, tag.getValue());
+                    insert.addBatch();
+                    batchCount = executeIfFull(insert, batchCount + 1);
+                }
+                if (batchCount > 0) {
+                    insert.executeBatch();
+                }
+            }
+        });
+        myLogger.debug("Inserted " + tags.size() + " tags for bag " + bagId + ".");
+    }
+
+    /**
+     * Executes a statement's batch if it has reached the maximum batch size.
+     * @return The number of statements that are left in the batch.
+     */
+    private static int executeIfFull(PreparedStatement statement, int batchCount) throws SQLException {
+        if (batchCount >= BATCH_SIZE) {
+            statement.executeBatch();
+            return 0;
+        }
+        return batchCount;
+    }
+
+    private static boolean isPostgres(Connection connection) throws SQLException {
+        return connection.getMetaData().getDatabaseProductName().startsWith("PostgreSQL");
+    }
+
+    private static long getNextSequenceValue(PreparedStatement statement) throws SQLException {
+        try (ResultSet rs = statement.executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+}
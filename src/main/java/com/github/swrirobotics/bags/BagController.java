@@ -257,6 +257,8 @@ public class BagController {
      * @param filter ExtJS grid filters to apply to the results
      * @param fillTopics Whether to fill the topics field of the bag objects
      * @param fillTypes Whether to fill the typcs field of the bag objects
+     * @param after The nextCursor from the previous page, if the client has it;
+     *              this is much faster than getting the page by its number
      * @return All bag files that match the given search terms.
      */
     @RequestMapping("/search")
@@ -268,7 +270,8 @@ public class BagController {
                            @RequestParam String dir,
                            @RequestParam(required = false) ExtJsFilter[] filter,
                            @RequestParam(required = false) Boolean fillTopics,
-                           @RequestParam(required = false) Boolean fillTypes) {
+                           @RequestParam(required = false) Boolean fillTypes,
+                           @RequestParam(required = false) SearchCursor after) {
         myLogger.info("getBags: " + text + " / page: " + page +
                       " / limit: " + limit + " / sort: " + sort +
                       " / dir: " + dir);
@@ -292,24 +295,16 @@ public class BagController {
                                                           page,
                                                           limit,
                                                           dir,
-                                                          sort);
+                                                          sort,
+                                                          after,
+                                                          Boolean.TRUE.equals(fillTopics),
+                                                          Boolean.TRUE.equals(fillTypes));
         }
         catch (RuntimeException e) {
             myLogger.error("Error searching bags", e);
             throw e;
         }
 
-        for (Bag bag : results.getBags()) {
-            // The big grid doesn't need this information, and serializing it for
-            // every bag will slow things down by a lot.
-            if (!Boolean.TRUE.equals(fillTypes)) {
-                bag.getMessageTypes().clear();
-            }
-            if (!Boolean.TRUE.equals(fillTopics)) {
-                bag.getTopics().clear();
-            }
-        }
-
         return results;
     }
 
@@ -376,10 +371,13 @@ public class BagController {
      * returned coordinates are a flat list of longitude/latitude pairs that
      * are sorted in ascending order of their timestamp in the database.
      * @param bagIds All of the bags to get coordinates for.
+     * @param maxPoints If set, the most detailed version of the paths that has
+     *                  no more than this many points will be returned.
      * @return All of the GPS coordinates for those bags.
      */
     @RequestMapping("/coords")
-    public List<Double[]> getGpsCoordsForBags(@RequestParam Long[] bagIds) {
-        return myBagService.getGpsCoordsForBags(Lists.newArrayList(bagIds));
+    public List<Double[]> getGpsCoordsForBags(@RequestParam Long[] bagIds,
+                                              @RequestParam(required = false) Integer maxPoints) {
+        return myBagService.getGpsCoordsForBags(Lists.newArrayList(bagIds), maxPoints);
     }
 }
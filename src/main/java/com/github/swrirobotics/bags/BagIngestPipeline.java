@@ -0,0 +1,314 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.bags;
+
+import com.github.swrirobotics.config.ConfigService;
+import com.github.swrirobotics.status.Status;
+import com.github.swrirobotics.status.StatusProvider;
+import com.github.swrirobotics.support.web.Configuration;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * Adds bag files to the database by passing them through a series of stages:
+ * <ol>
+ *     <li>Fingerprint: open the bag and determine its MD5 sum</li>
+ *     <li>Extract: read GPS positions, the vehicle name, and metadata</li>
+ *     <li>Geocode: look up the name of the bag's location if it's cached;
+ *         otherwise it's looked up in the background after the bag is persisted</li>
+ *     <li>Persist: write everything to the database</li>
+ * </ol>
+ * Each stage has its own thread pool and bounded queue.  When a stage's queue
+ * is full, the stage feeding it blocks until there is room, so a slow stage
+ * (such as hashing a very large bag) doesn't cause an unbounded number
+ * of bags to pile up in memory, and it doesn't stop the other stages from
+ * doing their work in the meantime.
+ */
+@Service
+public class BagIngestPipeline extends StatusProvider {
+    @Autowired
+    private BagService myBagService;
+    @Autowired
+    private ConfigService myConfigService;
+
+    private final List<Stage> myStages = Lists.newArrayList();
+
+    private boolean myWasBusy = false;
+
+    private static final int DEFAULT_GEOCODE_THREADS = 4;
+    private static final int DEFAULT_DATABASE_THREADS = 4;
+    private static final int DEFAULT_QUEUE_SIZE = 64;
+
+    private static final Logger myLogger = LoggerFactory.getLogger(BagIngestPipeline.class);
+
+    @PostConstruct
+    public void initialize() {
+        Configuration config = myConfigService.getConfiguration();
+        int processors = Runtime.getRuntime().availableProcessors();
+        int queueSize = positiveOrDefault(config.getIngestQueueSize(), DEFAULT_QUEUE_SIZE);
+
+        myStages.add(new Stage("fingerprint",
+                               positiveOrDefault(config.getFingerprintThreads(), processors),
+                               queueSize, myBagService::fingerprintBag));
+        myStages.add(new Stage("extract",
+                               positiveOrDefault(config.getExtractThreads(), processors),
+                               queueSize, myBagService::extractBagMetadata));
+        myStages.add(new Stage("geocode",
+                               positiveOrDefault(config.getGeocodeThreads(), DEFAULT_GEOCODE_THREADS),
+                               queueSize, task -> {
+                                   myBagService.geocodeBag(task);
+                                   return true;
+                               }));
+        myStages.add(new Stage("persist",
+                               positiveOrDefault(config.getDatabaseThreads(), DEFAULT_DATABASE_THREADS),
+                               queueSize, task -> {
+                                   myBagService.persistBag(task);
+                                   return true;
+                               }));
+    }
+
+    @PreDestroy
+    public void destroy() {
+        for (Stage stage : myStages) {
+            stage.myExecutor.shutdownNow();
+        }
+    }
+
+    private static int positiveOrDefault(Integer value, int defaultValue) {
+        return value == null || value <= 0 ? defaultValue : value;
+    }
+
+    /**
+     * Starts a new batch of bag files.  Every file submitted to the batch
+     * will be checked against the same sets of existing and missing bags.
+     * @param existingBagPaths Paths of bags that are already in the database.
+     * @param missingBagMd5sums MD5 sums of bags that are missing on disk.
+     * @param forceUpdate Whether bags that are already in the database should
+     *                    be updated anyway.
+     * @return A new batch.
+     */
+    public Batch startBatch(Map<String, Long> existingBagPaths,
+                            Map<String, Long> missingBagMd5sums,
+                            boolean forceUpdate) {
+        return new Batch(existingBagPaths, missingBagMd5sums, forceUpdate);
+    }
+
+    public class Batch {
+        private final Map<String, Long> myExistingBagPaths;
+        private final Map<String, Long> myMissingBagMd5sums;
+        private final boolean myForceUpdate;
+        private int myPendingCount = 0;
+
+        private Batch(Map<String, Long> existingBagPaths,
+                      Map<String, Long> missingBagMd5sums,
+                      boolean forceUpdate) {
+            myExistingBagPaths = existingBagPaths;
+            myMissingBagMd5sums = missingBagMd5sums;
+            myForceUpdate = forceUpdate;
+        }
+
+        /**
+         * Adds a bag file to the pipeline.  This will block if the first
+         * stage's queue is full.
+         * @param file The bag file to add.
+         */
+        public void submit(File file) {
+            taskStarted();
+            dispatch(0, new BagIngestTask(file, myExistingBagPaths, myMissingBagMd5sums, myForceUpdate), this);
+        }
+
+        /**
+         * Waits until every file that was submitted to this batch has made it
+         * all the way through the pipeline.
+         * @throws InterruptedException If interrupted while waiting.
+         */
+        public synchronized void await() throws InterruptedException {
+            while (myPendingCount > 0) {
+                wait();
+            }
+        }
+
+        private synchronized void taskStarted() {
+            myPendingCount++;
+        }
+
+        private synchronized void taskDone() {
+            myPendingCount--;
+            if (myPendingCount == 0) {
+                notifyAll();
+            }
+        }
+    }
+
+    private void dispatch(final int stageIndex, final BagIngestTask task, final Batch batch) {
+        final Stage stage = myStages.get(stageIndex);
+        try {
+            stage.myExecutor.execute(() -> {
+                boolean proceed = false;
+                try {
+                    proceed = stage.myWork.test(task);
+                }
+                catch (RuntimeException e) {
+                    handleError(task.file, e);
+                }
+                finally {
+                    stage.myCompletedCount.incrementAndGet();
+                }
+
+                if (proceed && stageIndex + 1 < myStages.size()) {
+                    dispatch(stageIndex + 1, task, batch);
+                }
+                else {
+                    batch.taskDone();
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            myLogger.warn("Unable to process " + task.file + "; the ingest pipeline was shut down.");
+            batch.taskDone();
+        }
+    }
+
+    private void handleError(File file, RuntimeException e) {
+        if (e instanceof DataIntegrityViolationException &&
+                BagService.isDuplicateMd5sumViolation((DataIntegrityViolationException) e)) {
+            String message = "The data in " + file.getName() + " seems to be a duplicate " +
+                    "of an existing bag file.  If you believe this is incorrect, please " +
+                    "report it as a bug.";
+            reportStatus(Status.State.ERROR, message);
+            myLogger.warn(message);
+            myLogger.warn(e.getLocalizedMessage());
+        }
+        else {
+            reportStatus(Status.State.ERROR, "Error checking bag file: " + e.getLocalizedMessage());
+            myLogger.error("Unexpected error updating bag file:", e);
+        }
+    }
+
+    /**
+     * Periodically reports how much work is queued up in each stage and how
+     * fast each stage is getting through it.
+     */
+    @Scheduled(fixedDelay = 5000)
+    public void reportStageStatistics() {
+        boolean isBusy = false;
+        StringBuilder msg = new StringBuilder("Ingest pipeline:");
+        for (Stage stage : myStages) {
+            isBusy |= stage.isBusy();
+            msg.append(' ').append(stage.getStatistics()).append(';');
+        }
+
+        if (isBusy) {
+            String status = msg.substring(0, msg.length() - 1);
+            myLogger.debug(status);
+            reportStatus(Status.State.WORKING, status);
+        }
+        else if (myWasBusy) {
+            reportStatus(Status.State.IDLE, "Ingest pipeline is idle.");
+        }
+        myWasBusy = isBusy;
+    }
+
+    @Override
+    protected String getStatusProviderName() {
+        return "Ingest Pipeline";
+    }
+
+    private static class Stage {
+        private final String myName;
+        private final ThreadPoolExecutor myExecutor;
+        private final Predicate<BagIngestTask> myWork;
+        private final AtomicLong myCompletedCount = new AtomicLong(0);
+        private long myLastCompletedCount = 0;
+        private long myLastReportTimeMs = System.currentTimeMillis();
+
+        Stage(String name, int threads, int queueSize, Predicate<BagIngestTask> work) {
+            myName = name;
+            myWork = work;
+            myExecutor = new ThreadPoolExecutor(
+                    threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueSize),
+                    new ThreadFactoryBuilder().setNameFormat("ingest-" + name + "-%d").build(),
+                    (runnable, executor) -> {
+                        // Rather than dropping work when the queue is full, block
+                        // whoever is submitting it until there's room.
+                        if (executor.isShutdown()) {
+                            throw new RejectedExecutionException("Stage " + name + " is shut down.");
+                        }
+                        try {
+                            executor.getQueue().put(runnable);
+                        }
+                        catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException("Interrupted while waiting for " + name, e);
+                        }
+                    });
+            myLogger.info("Ingest stage " + name + ": " + threads + " threads, queue size " + queueSize);
+        }
+
+        boolean isBusy() {
+            return !myExecutor.getQueue().isEmpty() || myExecutor.getActiveCount() > 0;
+        }
+
+        /**
+         * @return The stage's queue depth, number of active threads, and the
+         * number of bags it has processed per second since the last time this
+         * was called.
+         */
+        synchronized String getStatistics() {
+            long now = System.currentTimeMillis();
+            long completed = myCompletedCount.get();
+            double elapsedS = Math.max(now - myLastReportTimeMs, 1) / 1000.0;
+            double rate = (completed - myLastCompletedCount) / elapsedS;
+            myLastCompletedCount = completed;
+            myLastReportTimeMs = now;
+
+            return String.format("%s %d queued, %d/%d active, %.1f/s",
+                                 myName, myExecutor.getQueue().size(),
+                                 myExecutor.getActiveCount(), myExecutor.getMaximumPoolSize(), rate);
+        }
+    }
+}
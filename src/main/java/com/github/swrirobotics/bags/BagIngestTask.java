@@ -0,0 +1,68 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.bags;
+
+import com.github.swrirobotics.bags.reader.BagFile;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * Everything that is known about a bag file as it moves through the stages
+ * of being added to the database.  Each stage fills in more of it.
+ */
+class BagIngestTask {
+    BagIngestTask(File file,
+                  Map<String, Long> existingBagPaths,
+                  Map<String, Long> missingBagMd5sums,
+                  boolean forceUpdate) {
+        this.file = file;
+        this.existingBagPaths = existingBagPaths;
+        this.missingBagMd5sums = missingBagMd5sums;
+        this.forceUpdate = forceUpdate;
+    }
+
+    final File file;
+    final Map<String, Long> existingBagPaths;
+    final Map<String, Long> missingBagMd5sums;
+    final boolean forceUpdate;
+
+    // Set by the fingerprint stage
+    Long bagId;
+    BagFile bagFile;
+    String md5sum;
+
+    // Set by the extract stage
+    BagMetadataExtractor metadata;
+
+    // Set by the geocode stage
+    String locationName;
+}
@@ -0,0 +1,319 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.bags;
+
+import com.github.swrirobotics.bags.reader.BagFile;
+import com.github.swrirobotics.bags.reader.MessageHandler;
+import com.github.swrirobotics.bags.reader.TopicInfo;
+import com.github.swrirobotics.bags.reader.exceptions.BagReaderException;
+import com.github.swrirobotics.bags.reader.exceptions.UninitializedFieldException;
+import com.github.swrirobotics.bags.reader.messages.serialization.MessageType;
+import com.github.swrirobotics.bags.reader.messages.serialization.StringType;
+import com.github.swrirobotics.bags.reader.records.Connection;
+import com.github.swrirobotics.support.web.Configuration;
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Extracts GPS positions, the vehicle name, and key:value metadata from a bag
+ * file.
+ *
+ * <p>Rather than searching the bag separately for each of those, this uses the
+ * bag's index to decide up front which topics are needed, then reads each of
+ * those topics exactly once and hands every message to all of the extractors
+ * that are interested in it.  Topics that aren't needed are never read.
+ */
+class BagMetadataExtractor {
+    /**
+     * The pieces of information that can be extracted.
+     */
+    enum Field {
+        GPS_POSITIONS,
+        // Only the first GPS position; ignored if GPS_POSITIONS is also requested.
+        FIRST_GPS_POSITION,
+        VEHICLE_NAME,
+        METADATA
+    }
+
+    // Message types that will be used for GPS positions if none of the
+    // configured GPS topics are present, in order of preference.
+    private static final String[] GPS_MESSAGE_TYPES = {
+            "sensor_msgs/NavSatFix",
+            "gps_common/GPSFix",
+            "marti_gps_common/GPSFix"
+    };
+
+    private final String[] myGpsTopics;
+    private final String[] myVehicleNameTopics;
+    private final String[] myMetadataTopics;
+    private final Set<Field> myFields;
+
+    private final List<GpsPosition> myGpsPositions = Lists.newArrayList();
+    private String myVehicleName = null;
+    private final Map<String, String> myMetadata = Maps.newHashMap();
+
+    private static final Logger myLogger = LoggerFactory.getLogger(BagMetadataExtractor.class);
+
+    BagMetadataExtractor(Configuration config, Set<Field> fields) {
+        myGpsTopics = config.getGpsTopics();
+        myVehicleNameTopics = config.getVehicleNameTopics();
+        myMetadataTopics = config.getMetadataTopics();
+        myFields = EnumSet.copyOf(fields);
+    }
+
+    BagMetadataExtractor(Configuration config) {
+        this(config, EnumSet.allOf(Field.class));
+    }
+
+    List<GpsPosition> getGpsPositions() {
+        return myGpsPositions;
+    }
+
+    /**
+     * @return The name of the vehicle that recorded the bag, or null if it
+     * couldn't be determined.
+     */
+    String getVehicleName() {
+        return myVehicleName;
+    }
+
+    Map<String, String> getMetadata() {
+        return myMetadata;
+    }
+
+    /**
+     * Reads all of the requested fields from a bag file.
+     * @param bagFile The bag file to read; its index must already have been read.
+     * @return This extractor.
+     * @throws BagReaderException If there was an error reading the bag.
+     */
+    BagMetadataExtractor extract(BagFile bagFile) throws BagReaderException {
+        Map<String, TopicInfo> topics = new LinkedHashMap<>();
+        for (TopicInfo topic : bagFile.getTopics()) {
+            if (topic.getMessageCount() > 0) {
+                topics.put(topic.getName(), topic);
+            }
+        }
+
+        Map<String, List<TopicHandler>> handlers = new LinkedHashMap<>();
+
+        if (myFields.contains(Field.VEHICLE_NAME)) {
+            for (String topic : myVehicleNameTopics) {
+                if (topics.containsKey(topic)) {
+                    addHandler(handlers, topic, new VehicleNameHandler());
+                    break;
+                }
+            }
+        }
+
+        if (myFields.contains(Field.METADATA)) {
+            MetadataHandler metadataHandler = new MetadataHandler();
+            for (String topic : myMetadataTopics) {
+                if (topics.containsKey(topic)) {
+                    addHandler(handlers, topic, metadataHandler);
+                }
+            }
+        }
+
+        List<String> gpsCandidates = Collections.emptyList();
+        boolean firstGpsOnly = !myFields.contains(Field.GPS_POSITIONS);
+        if (!firstGpsOnly || myFields.contains(Field.FIRST_GPS_POSITION)) {
+            gpsCandidates = getGpsCandidateTopics(topics);
+            if (!gpsCandidates.isEmpty()) {
+                addHandler(handlers, gpsCandidates.get(0), new GpsHandler(firstGpsOnly));
+            }
+        }
+
+        for (Map.Entry<String, List<TopicHandler>> entry : handlers.entrySet()) {
+            myLogger.trace("Reading topic " + entry.getKey() + " for " +
+                           entry.getValue().size() + " extractors.");
+            bagFile.forMessagesOnTopic(entry.getKey(), new CompositeHandler(entry.getValue()));
+        }
+
+        // It's possible for the preferred GPS topic to not actually contain any
+        // usable positions; if so, fall back to the next candidate.
+        for (int i = 1; i < gpsCandidates.size() && myGpsPositions.isEmpty(); i++) {
+            bagFile.forMessagesOnTopic(gpsCandidates.get(i), new CompositeHandler(
+                    Collections.singletonList(new GpsHandler(firstGpsOnly))));
+        }
+
+        return this;
+    }
+
+    /**
+     * Determines which topics could have GPS positions on them, in the order
+     * they should be tried.  Configured GPS topics come first, followed by the
+     * first topic for each of the known GPS message types.
+     */
+    private List<String> getGpsCandidateTopics(Map<String, TopicInfo> topics) {
+        List<String> candidates = Lists.newArrayList();
+        for (String topic : myGpsTopics) {
+            if (topics.containsKey(topic) && !candidates.contains(topic)) {
+                candidates.add(topic);
+            }
+        }
+        for (String type : GPS_MESSAGE_TYPES) {
+            for (TopicInfo topic : topics.values()) {
+                if (type.equals(topic.getMessageType())) {
+                    if (!candidates.contains(topic.getName())) {
+                        candidates.add(topic.getName());
+                    }
+                    break;
+                }
+            }
+        }
+        return candidates;
+    }
+
+    private static void addHandler(Map<String, List<TopicHandler>> handlers,
+                                   String topic,
+                                   TopicHandler handler) {
+        handlers.computeIfAbsent(topic, t -> Lists.newArrayList()).add(handler);
+    }
+
+    /**
+     * Like a {@link MessageHandler}, but able to tell the {@link CompositeHandler}
+     * that it doesn't need to see any more messages.
+     */
+    private abstract static class TopicHandler {
+        private boolean myIsDone = false;
+
+        boolean isDone() {
+            return myIsDone;
+        }
+
+        void handle(MessageType message) {
+            if (!process(message)) {
+                myIsDone = true;
+            }
+        }
+
+        /**
+         * @return true if this handler wants more messages; false if it's done.
+         */
+        abstract boolean process(MessageType message);
+    }
+
+    /**
+     * Passes every message on a topic to multiple handlers and stops reading
+     * once they're all done.
+     */
+    private static class CompositeHandler implements MessageHandler {
+        private final List<TopicHandler> myHandlers;
+
+        CompositeHandler(List<TopicHandler> handlers) {
+            myHandlers = handlers;
+        }
+
+        @Override
+        public boolean process(MessageType message, Connection connection) {
+            boolean wantsMore = false;
+            for (TopicHandler handler : myHandlers) {
+                if (!handler.isDone()) {
+                    handler.handle(message);
+                    wantsMore |= !handler.isDone();
+                }
+            }
+            return wantsMore;
+        }
+    }
+
+    private class GpsHandler extends TopicHandler {
+        private final boolean myFirstOnly;
+
+        GpsHandler(boolean firstOnly) {
+            myFirstOnly = firstOnly;
+        }
+
+        @Override
+        boolean process(MessageType message) {
+            try {
+                myGpsPositions.add(new GpsPosition(message.getField("latitude"),
+                                                   message.getField("longitude"),
+                                                   message.<MessageType>getField("header").getField("stamp")));
+            }
+            catch (UninitializedFieldException | NullPointerException e) {
+                // This will be thrown if the topic we're looking at doesn't actually
+                // have "latitude", "longitude", or "header" fields, in which case
+                // it's pointless to look at any other messages on this topic.
+                return false;
+            }
+            return !myFirstOnly;
+        }
+    }
+
+    private class VehicleNameHandler extends TopicHandler {
+        @Override
+        boolean process(MessageType message) {
+            try {
+                myVehicleName = message.<StringType>getField("data").getValue()
+                                       .replaceAll("\\p{C}", "").trim();
+            }
+            catch (UninitializedFieldException | NullPointerException e) {
+                myLogger.debug("Unable to read vehicle name: " + e.getLocalizedMessage());
+            }
+            // Only the first message is used.
+            return false;
+        }
+    }
+
+    /**
+     * Each message on a metadata topic should be a std_msgs/String that
+     * contains a newline-separated set of key:value pairs.  If there are any
+     * duplicate keys, the values from later messages overwrite earlier ones.
+     */
+    private class MetadataHandler extends TopicHandler {
+        private final Splitter.MapSplitter myLineSplitter =
+                Splitter.on(System.getProperty("line.separator")).omitEmptyStrings().trimResults()
+                        .withKeyValueSeparator(Splitter.on(':').limit(2).trimResults());
+
+        @Override
+        boolean process(MessageType message) {
+            try {
+                String data = message.<StringType>getField("data").getValue();
+                myLogger.debug("Examining message: " + data);
+                myMetadata.putAll(myLineSplitter.split(data));
+            }
+            catch (UninitializedFieldException e) {
+                // continue
+            }
+            catch (IllegalArgumentException | NoSuchElementException e) {
+                myLogger.warn("Unable to parse metadata message: " + e.getLocalizedMessage());
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.bags;
+
+import com.github.swrirobotics.persistence.BagCount;
+import com.github.swrirobotics.persistence.BagPathInfo;
+import com.github.swrirobotics.persistence.BagRepository;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Counts how many bags under each directory have file names that match some
+ * text.  The bag tree's filter asks for this on every keystroke, so the
+ * directories and file names of every bag are kept in memory in a
+ * {@link BagPathTrie}.  It's loaded from the database the first time it's
+ * needed and then kept up to date with {@link BagsChangedEvent}s.
+ */
+@Service
+public class BagPathCounter {
+    @Autowired
+    private BagRepository myBagRepository;
+
+    private static final int UPDATE_CHUNK_SIZE = 1000;
+
+    private final BagPathTrie myTrie = new BagPathTrie();
+    private final ReadWriteLock myLock = new ReentrantReadWriteLock();
+    // Guarded by myLock
+    private boolean myIsLoaded = false;
+
+    private static final Logger myLogger = LoggerFactory.getLogger(BagPathCounter.class);
+
+    /**
+     * Counts the bags under every directory that contains bags.
+     * @param text The text to look for in bag file names; if empty, every bag matches.
+     * @return How many matching bags are under each directory, recursively.
+     */
+    @Transactional(readOnly = true)
+    public List<BagCount> countMatchingBags(String text) {
+        ensureLoaded();
+        myLock.readLock().lock();
+        try {
+            return myTrie.countMatching(text);
+        }
+        finally {
+            myLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Counts all of the bags under a directory.
+     * @param path The directory, with a trailing slash.
+     * @return How many bags are in the directory and its subdirectories.
+     */
+    @Transactional(readOnly = true)
+    public long countBags(String path) {
+        ensureLoaded();
+        myLock.readLock().lock();
+        try {
+            return myTrie.countBags(path);
+        }
+        finally {
+            myLock.readLock().unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBagsChanged(BagsChangedEvent event) {
+        for (List<Long> bagIds : Lists.partition(event.getBagIds(), UPDATE_CHUNK_SIZE)) {
+            myLock.writeLock().lock();
+            try {
+                // If the tree hasn't been loaded yet, it'll see these changes
+                // when it is.
+                if (!myIsLoaded) {
+                    return;
+                }
+                // The paths are read while holding the lock so that if two
+                // events for the same bag are handled at once, whichever one
+                // gets the lock last also sees the latest state; otherwise an
+                // older read could put back a bag that was just removed.
+                List<BagPathInfo> bags = myBagRepository.findPathInfoByIdIn(bagIds);
+                Set<Long> deletedIds = Sets.newHashSet(bagIds);
+                for (BagPathInfo bag : bags) {
+                    myTrie.put(bag.getId(), bag.getPath(), bag.getFilename());
+                    deletedIds.remove(bag.getId());
+                }
+                deletedIds.forEach(myTrie::remove);
+            }
+            finally {
+                myLock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Loads every bag's path into the tree if that hasn't been done yet.
+     * This must be called inside a transaction.
+     */
+    private void ensureLoaded() {
+        myLock.readLock().lock();
+        try {
+            if (myIsLoaded) {
+                return;
+            }
+        }
+        finally {
+            myLock.readLock().unlock();
+        }
+
+        // Changes that are committed while this is loading will wait for the
+        // lock and then be applied on top of it.
+        myLock.writeLock().lock();
+        try {
+            if (myIsLoaded) {
+                return;
+            }
+            myIsLoaded = true;
+            myTrie.clear();
+            try (Stream<BagPathInfo> bags = myBagRepository.streamAllPathInfo()) {
+                bags.forEach(bag -> myTrie.put(bag.getId(), bag.getPath(), bag.getFilename()));
+            }
+            catch (RuntimeException e) {
+                myIsLoaded = false;
+                throw e;
+            }
+            myLogger.info("Loaded the paths of " + myTrie.size() + " bags.");
+        }
+        finally {
+            myLock.writeLock().unlock();
+        }
+    }
+}
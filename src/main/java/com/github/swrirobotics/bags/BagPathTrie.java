@@ -0,0 +1,173 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.bags;
+
+import com.github.swrirobotics.persistence.BagCount;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds the file names of every bag in a tree of the directories that they're
+ * in, so that the number of bags under each directory whose names match some
+ * text can be counted by walking the tree once.
+ *
+ * This class is not thread-safe.
+ */
+public class BagPathTrie {
+    private static class Node {
+        final String path;
+        final Node parent;
+        final Map<String, Node> children = new HashMap<>();
+        // Bag IDs and lower-case file names of the bags directly in this directory
+        final Map<Long, String> bags = new HashMap<>();
+        // The number of bags in this directory and all of its subdirectories
+        long bagCount = 0;
+
+        Node(String path, Node parent) {
+            this.path = path;
+            this.parent = parent;
+        }
+    }
+
+    private Node myRoot = new Node("", null);
+    private final Map<Long, Node> myBagNodes = new HashMap<>();
+
+    /**
+     * Adds a bag to the tree, or moves it if it's already there.
+     * @param bagId The bag's database ID.
+     * @param path The directory containing the bag, with a trailing slash.
+     * @param filename The bag's file name.
+     */
+    public void put(long bagId, String path, String filename) {
+        remove(bagId);
+        Node node = myRoot;
+        node.bagCount++;
+        int start = 0;
+        while (start < path.length()) {
+            int end = path.indexOf('/', start);
+            end = end < 0 ? path.length() : end + 1;
+            final Node parent = node;
+            final String prefix = path.substring(0, end);
+            node = node.children.computeIfAbsent(path.substring(start, end),
+                                                 segment -> new Node(prefix, parent));
+            node.bagCount++;
+            start = end;
+        }
+        node.bags.put(bagId, filename.toLowerCase());
+        myBagNodes.put(bagId, node);
+    }
+
+    /**
+     * Removes a bag from the tree, along with any directories that no longer
+     * have bags under them.
+     * @param bagId The bag's database ID.
+     */
+    public void remove(long bagId) {
+        Node node = myBagNodes.remove(bagId);
+        if (node == null) {
+            return;
+        }
+        node.bags.remove(bagId);
+        for (Node parent = node; parent != null; parent = parent.parent) {
+            parent.bagCount--;
+        }
+        while (node.parent != null && node.bagCount == 0) {
+            String segment = node.path.substring(node.parent.path.length());
+            node.parent.children.remove(segment);
+            node = node.parent;
+        }
+    }
+
+    public void clear() {
+        myRoot = new Node("", null);
+        myBagNodes.clear();
+    }
+
+    /**
+     * Counts all of the bags under a directory.
+     * @param path The directory, with a trailing slash.
+     * @return The number of bags in the directory and all of its
+     * subdirectories, or zero if there are none.
+     */
+    public long countBags(String path) {
+        Node node = myRoot;
+        int start = 0;
+        while (node != null && start < path.length()) {
+            int end = path.indexOf('/', start);
+            end = end < 0 ? path.length() : end + 1;
+            node = node.children.get(path.substring(start, end));
+            start = end;
+        }
+        return node == null ? 0 : node.bagCount;
+    }
+
+    public int size() {
+        return myBagNodes.size();
+    }
+
+    /**
+     * Counts the bags under every directory in the tree whose file names
+     * contain some text, ignoring case.
+     * @param text The text to search for; if empty, every bag matches.
+     * @return The number of matching bags under each directory, including
+     * bags in its subdirectories.  Directories with no matching bags are
+     * included with a count of zero.
+     */
+    public List<BagCount> countMatching(String text) {
+        List<BagCount> counts = new ArrayList<>();
+        String lowerText = text.toLowerCase();
+        for (Node child : myRoot.children.values()) {
+            countMatching(child, lowerText, counts);
+        }
+        return counts;
+    }
+
+    private static long countMatching(Node node, String lowerText, List<BagCount> counts) {
+        long count = 0;
+        for (String filename : node.bags.values()) {
+            if (filename.contains(lowerText)) {
+                count++;
+            }
+        }
+        for (Node child : node.children.values()) {
+            count += countMatching(child, lowerText, counts);
+        }
+
+        BagCount bagCount = new BagCount();
+        bagCount.path = node.path;
+        bagCount.count = count;
+        counts.add(bagCount);
+        return count;
+    }
+}
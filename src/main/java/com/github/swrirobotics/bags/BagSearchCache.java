@@ -0,0 +1,182 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.bags;
+
+import com.github.swrirobotics.config.ConfigService;
+import com.github.swrirobotics.support.web.BagList;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PostConstruct;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Caches the results of bag searches.  The bag grid asks for the same pages
+ * over and over as people open the application and its store reloads, and
+ * nearly all of them are answered without changing anything in between.
+ *
+ * Any change to any bag could change the results of any search, so every
+ * cached result is discarded when a {@link BagsChangedEvent} is committed or
+ * the search index is updated.  The size of the cache is limited by the
+ * total number of bags in the cached results; see
+ * {@link com.github.swrirobotics.support.web.Configuration#getSearchCacheSize()}.
+ */
+@Service
+public class BagSearchCache {
+    @Autowired
+    private ConfigService myConfigService;
+
+    // Counts are cheap to keep but go stale if a bag changes in a way that
+    // doesn't produce an event, so they also expire on their own.
+    private static final int COUNT_CACHE_SIZE = 1000;
+    private static final long COUNT_CACHE_SECONDS = 60;
+
+    private Cache<String, BagList> myResults;
+    private final Cache<String, Long> myCounts = CacheBuilder.newBuilder()
+            .maximumSize(COUNT_CACHE_SIZE)
+            .expireAfterWrite(COUNT_CACHE_SECONDS, TimeUnit.SECONDS)
+            .build();
+
+    // Incremented every time the caches are cleared; a search that started
+    // before then may have seen old data, so its results aren't cached.
+    private long myGeneration = 0;
+    private long myInvalidationCount = 0;
+
+    private static final Logger myLogger = LoggerFactory.getLogger(BagSearchCache.class);
+
+    @PostConstruct
+    public void initialize() {
+        Integer maxBags = myConfigService.getConfiguration().getSearchCacheSize();
+        if (maxBags == null || maxBags < 0) {
+            maxBags = 0;
+        }
+        myLogger.info("Caching up to " + maxBags + " bags in search results.");
+        myResults = CacheBuilder.newBuilder()
+                .maximumWeight(maxBags)
+                .weigher((String key, BagList bags) -> bags.getBags().size() + 1)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Gets the results of a search from the cache, or runs the search and
+     * caches its results if they aren't there.
+     * @param key Identifies the search, including which page of results it's for.
+     * @param search Runs the search.
+     * @return The results of the search.
+     */
+    public BagList getResults(String key, Supplier<BagList> search) {
+        BagList results = myResults.getIfPresent(key);
+        if (results == null) {
+            long generation = getGeneration();
+            results = search.get();
+            synchronized (this) {
+                if (generation == myGeneration) {
+                    myResults.put(key, results);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Gets the number of bags that match a search.
+     * @param key Identifies the search, regardless of which page it's for.
+     * @param refresh If true, the bags are counted even if there is a cached count.
+     * @param counter Counts the bags.
+     * @return The number of matching bags.
+     */
+    public long getCount(String key, boolean refresh, LongSupplier counter) {
+        Long count = refresh ? null : myCounts.getIfPresent(key);
+        if (count == null) {
+            long generation = getGeneration();
+            count = counter.getAsLong();
+            synchronized (this) {
+                if (generation == myGeneration) {
+                    myCounts.put(key, count);
+                }
+            }
+        }
+        return count;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBagsChanged(BagsChangedEvent event) {
+        invalidate();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onSearchIndexUpdated(SearchIndexUpdatedEvent event) {
+        invalidate();
+    }
+
+    public synchronized void invalidate() {
+        myGeneration++;
+        myInvalidationCount++;
+        myResults.invalidateAll();
+        myCounts.invalidateAll();
+    }
+
+    /**
+     * @return Statistics about how effective the cache is, for deciding how
+     * large it should be.
+     */
+    public Map<String, Object> getStats() {
+        CacheStats stats = myResults.stats();
+        Map<String, Object> result = Maps.newLinkedHashMap();
+        result.put("requestCount", stats.requestCount());
+        result.put("hitCount", stats.hitCount());
+        result.put("missCount", stats.missCount());
+        result.put("hitRate", stats.hitRate());
+        result.put("evictionCount", stats.evictionCount());
+        result.put("invalidationCount", getInvalidationCount());
+        result.put("cachedSearches", myResults.size());
+        return result;
+    }
+
+    private synchronized long getGeneration() {
+        return myGeneration;
+    }
+
+    private synchronized long getInvalidationCount() {
+        return myInvalidationCount;
+    }
+}
@@ -0,0 +1,616 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.bags;
+
+import com.github.swrirobotics.config.ConfigService;
+import com.github.swrirobotics.persistence.Bag;
+import com.github.swrirobotics.persistence.BagRepository;
+import com.github.swrirobotics.persistence.MessageType;
+import com.github.swrirobotics.persistence.Tag;
+import com.github.swrirobotics.persistence.Topic;
+import com.github.swrirobotics.status.Status;
+import com.github.swrirobotics.status.StatusProvider;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.CharStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A Lucene index of the text fields that can be searched from the search
+ * panel: bags' file names, paths, descriptions, locations, and vehicle names,
+ * along with their tag keys and values, message type names, and topic names.
+ *
+ * <p>Every value is indexed as a sequence of lowercase trigrams, so a search
+ * for any text of at least three characters is a phrase query that matches
+ * exactly the same bags as a case-insensitive <code>LIKE '%text%'</code> in
+ * the database would.  Shorter searches use a wildcard query on the whole
+ * value, but only the first 1000 characters of each value are indexed for
+ * them, so they won't find text that only appears after that in a long
+ * description.  The index only finds matching bag IDs; the bags themselves
+ * are still loaded from the database.
+ *
+ * <p>The index is kept in ~/.ros-bag-database/indexes, or in memory if the
+ * database is an in-memory one.  It is rebuilt on startup if it was built
+ * from a different database, doesn't have the same number of bags as the
+ * database, or wasn't closed cleanly.  Bags are re-indexed in the background after the
+ * transaction that published a {@link BagsChangedEvent} for them commits, and
+ * the whole index can be rebuilt with {@link #rebuild()}.  On shutdown, bags
+ * that are still waiting to be re-indexed are finished before the index is
+ * closed; if that doesn't happen, changes to them could be missing from the
+ * index, so it's marked as needing to be rebuilt.
+ * If the configured search mode is "database", the index is never opened
+ * and every search goes to the database.
+ */
+@Service
+// Checking whether the index is up to date on startup requires the database.
+@DependsOn("liquibase")
+public class BagSearchIndex extends StatusProvider {
+    @Autowired
+    private BagRepository myBagRepository;
+    @Autowired
+    private ConfigService myConfigService;
+    @Autowired
+    private ApplicationEventPublisher myEventPublisher;
+
+    // These match the names of the fields in the search panel.
+    static final Set<String> TEXT_FIELDS = ImmutableSet.of(
+            "filename", "path", "description", "location", "vehicle",
+            "tags", "messageType", "topicName");
+    private static final String ID_FIELD = "id";
+    private static final String RAW_SUFFIX = "_raw";
+    private static final int GRAM_SIZE = 3;
+    // Values are also indexed whole for short searches; Lucene terms can't be
+    // longer than 32k, and nobody searches for a two-letter string in a
+    // multi-page description.
+    private static final int MAX_RAW_LENGTH = 1000;
+    private static final int BATCH_SIZE = 100;
+    private static final String INDEX_DIRECTORY = ".ros-bag-database/indexes";
+    // Saved with the index's last commit when it's closed with nothing left
+    // to index; it's cleared again as soon as the index is opened.
+    private static final String CLEAN_SHUTDOWN_KEY = "cleanShutdown";
+    // The JDBC URL of the database that the index was built from.
+    private static final String DATABASE_KEY = "database";
+    private static final String IN_MEMORY_DATABASE_PREFIX = "jdbc:h2:mem:";
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private final Set<Long> myPendingBagIds = Sets.newConcurrentHashSet();
+    // All writes to the index happen on this thread.
+    private final ExecutorService myExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("search-index-%d").build());
+
+    private Directory myDirectory;
+    private IndexWriter myWriter;
+    private SearcherManager mySearcherManager;
+    private String myDatabaseUrl;
+    // Searches fall back to the database until the index is known to be complete.
+    private volatile boolean myIsReady = false;
+
+    private static final Logger myLogger = LoggerFactory.getLogger(BagSearchIndex.class);
+
+    @PostConstruct
+    public void initialize() {
+        if ("database".equals(myConfigService.getConfiguration().getSearchMode())) {
+            myLogger.info("Search mode is \"database\"; not using the search index.");
+            return;
+        }
+
+        String databaseUrl = myConfigService.getConfiguration().getJdbcUrl();
+        Path indexPath = Paths.get(System.getProperty("user.home"), INDEX_DIRECTORY);
+        try {
+            if (databaseUrl != null && databaseUrl.startsWith(IN_MEMORY_DATABASE_PREFIX)) {
+                // The database won't outlive this process, so neither should the index.
+                open(new ByteBuffersDirectory(), databaseUrl);
+            }
+            else {
+                Files.createDirectories(indexPath);
+                open(FSDirectory.open(indexPath), databaseUrl);
+            }
+        }
+        catch (IOException e) {
+            myLogger.warn("Unable to open search index in " + indexPath +
+                          "; keeping it in memory instead.", e);
+            try {
+                open(new ByteBuffersDirectory(), databaseUrl);
+            }
+            catch (IOException e2) {
+                myLogger.error("Unable to create search index.", e2);
+                return;
+            }
+        }
+
+        myExecutor.execute(() -> {
+            boolean isUpToDate = isUpToDate(myBagRepository.count());
+            try {
+                // If the application stops without closing the index, changes
+                // from now on might be lost.
+                setClosedCleanly(false);
+            }
+            catch (IOException e) {
+                myLogger.error("Unable to update search index.", e);
+            }
+
+            if (isUpToDate) {
+                myIsReady = true;
+            }
+            else {
+                rebuildIndex();
+            }
+        });
+    }
+
+    /**
+     * Checks whether the index that was just opened can be used as it is.
+     * @param bagCount The number of bags in the database.
+     * @return True if the index was built from the same database, was closed
+     * cleanly, and has the same number of bags as the database.
+     */
+    boolean isUpToDate(long bagCount) {
+        if (!Objects.equals(getCommitValue(DATABASE_KEY), myDatabaseUrl)) {
+            myLogger.info("Search index was built from a different database.");
+            return false;
+        }
+        if (!Boolean.parseBoolean(getCommitValue(CLEAN_SHUTDOWN_KEY))) {
+            myLogger.info("Search index was not closed cleanly.");
+            return false;
+        }
+        if (myWriter.getDocStats().numDocs != bagCount) {
+            myLogger.info("Search index has " + myWriter.getDocStats().numDocs +
+                          " bags, but the database has " + bagCount + ".");
+            return false;
+        }
+        myLogger.info("Search index is up to date with " + bagCount + " bags.");
+        return true;
+    }
+
+    /**
+     * Opens the index.
+     * @param directory The directory to keep the index in.
+     * @param databaseUrl The JDBC URL of the database that the index is built
+     *                    from; it's saved with the index so that it can tell
+     *                    if it's opened with a different one later.
+     */
+    void open(Directory directory, String databaseUrl) throws IOException {
+        myDirectory = directory;
+        myDatabaseUrl = databaseUrl;
+        IndexWriterConfig config = new IndexWriterConfig(new TrigramAnalyzer());
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        myWriter = new IndexWriter(myDirectory, config);
+        mySearcherManager = new SearcherManager(myWriter, null);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        // Let bags that are waiting to be indexed finish so that their changes
+        // aren't lost.
+        myExecutor.shutdown();
+        try {
+            if (!myExecutor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                myLogger.warn("Timed out waiting for the search index to be updated; " +
+                              "it will be rebuilt on the next startup.");
+                myExecutor.shutdownNow();
+            }
+        }
+        catch (InterruptedException e) {
+            myExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            if (mySearcherManager != null) {
+                mySearcherManager.close();
+            }
+            if (myWriter != null) {
+                if (myExecutor.isTerminated() && myPendingBagIds.isEmpty() && myIsReady) {
+                    setClosedCleanly(true);
+                }
+                myWriter.close();
+            }
+            if (myDirectory != null) {
+                myDirectory.close();
+            }
+        }
+        catch (IOException e) {
+            myLogger.warn("Error closing search index.", e);
+        }
+    }
+
+    /**
+     * @return True if the index has every bag in it and can be searched.
+     */
+    public boolean isReady() {
+        return myIsReady;
+    }
+
+    /**
+     * Finds every bag that has the given text in any of the given fields,
+     * ignoring case.
+     * @param text The text to search for.
+     * @param fields The names of the fields to search.
+     * @return The IDs of the matching bags, in no particular order, or null if
+     * the index isn't ready or one of the fields isn't indexed; in that case
+     * the database must be searched instead.
+     */
+    public List<Long> findBagIds(String text, Collection<String> fields) {
+        if (!myIsReady || fields.isEmpty() || !TEXT_FIELDS.containsAll(fields)) {
+            return null;
+        }
+
+        IndexSearcher searcher = null;
+        try {
+            searcher = mySearcherManager.acquire();
+            BagIdCollector collector = new BagIdCollector();
+            searcher.search(makeQuery(text, fields), collector);
+            return collector.getBagIds();
+        }
+        catch (IOException e) {
+            myLogger.error("Unable to search the search index.", e);
+            return null;
+        }
+        finally {
+            if (searcher != null) {
+                try {
+                    mySearcherManager.release(searcher);
+                }
+                catch (IOException e) {
+                    myLogger.warn("Unable to release index searcher.", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Re-indexes bags that have been inserted, modified, or deleted once the
+     * transaction that changed them commits.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBagsChanged(BagsChangedEvent event) {
+        if (event.getBagIds().isEmpty() || myWriter == null) {
+            return;
+        }
+        queueBags(event.getBagIds());
+    }
+
+    /**
+     * Rebuilds the whole index from the database in the background.
+     */
+    public void rebuild() {
+        myExecutor.execute(this::rebuildIndex);
+    }
+
+    private void queueBags(Collection<Long> bagIds) {
+        myPendingBagIds.addAll(bagIds);
+        try {
+            myExecutor.execute(this::indexPendingBags);
+        }
+        catch (RejectedExecutionException e) {
+            // The index is being closed; since the bags are still pending, it
+            // won't be marked as closed cleanly and will be rebuilt on startup.
+            myLogger.warn("Search index is shutting down; unable to index " + bagIds.size() + " bags.");
+        }
+    }
+
+    private void indexPendingBags() {
+        // Several tasks may have been queued for bags that were all handled
+        // by the first one.
+        List<Long> bagIds = Lists.newArrayList(myPendingBagIds);
+        if (bagIds.isEmpty() || myWriter == null) {
+            return;
+        }
+        myPendingBagIds.removeAll(bagIds);
+
+        try {
+            for (List<Long> batch : Lists.partition(bagIds, BATCH_SIZE)) {
+                Set<Long> deletedIds = Sets.newHashSet(batch);
+                for (Bag bag : myBagRepository.findAllById(batch)) {
+                    myWriter.updateDocument(idTerm(bag.getId()), makeDocument(bag));
+                    deletedIds.remove(bag.getId());
+                }
+                for (Long bagId : deletedIds) {
+                    myWriter.deleteDocuments(idTerm(bagId));
+                }
+            }
+            myWriter.commit();
+            mySearcherManager.maybeRefresh();
+            myEventPublisher.publishEvent(new SearchIndexUpdatedEvent());
+            myLogger.trace("Re-indexed " + bagIds.size() + " bags.");
+        }
+        catch (IOException | RuntimeException e) {
+            // They'll be tried again the next time bags change, and if that
+            // never works, the index will be rebuilt on startup.
+            myPendingBagIds.addAll(bagIds);
+            myLogger.error("Unable to update search index.", e);
+        }
+    }
+
+    private void rebuildIndex() {
+        if (myWriter == null) {
+            return;
+        }
+        String msg = "Rebuilding the search index.";
+        myLogger.info(msg);
+        reportStatus(Status.State.WORKING, msg);
+        myIsReady = false;
+        try {
+            myWriter.deleteAll();
+            int bagCount = 0;
+            for (List<Long> bagIds : myBagRepository.findIdPages(BATCH_SIZE)) {
+                for (Bag bag : myBagRepository.findAllById(bagIds)) {
+                    myWriter.addDocument(makeDocument(bag));
+                }
+                bagCount += bagIds.size();
+                reportStatus(Status.State.WORKING, "Rebuilding the search index: " + bagCount + " bags done.");
+            }
+            myWriter.commit();
+            mySearcherManager.maybeRefresh();
+            myIsReady = true;
+            myEventPublisher.publishEvent(new SearchIndexUpdatedEvent());
+            msg = "Done rebuilding the search index; indexed " + bagCount + " bags.";
+            myLogger.info(msg);
+            reportStatus(Status.State.IDLE, msg);
+        }
+        catch (IOException | RuntimeException e) {
+            myLogger.error("Unable to rebuild search index.", e);
+            reportStatus(Status.State.ERROR, "Unable to rebuild search index: " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * @return The value saved with the index's last commit for a key, or null
+     * if there isn't one.
+     */
+    private String getCommitValue(String key) {
+        Iterable<Map.Entry<String, String>> commitData = myWriter.getLiveCommitData();
+        if (commitData != null) {
+            for (Map.Entry<String, String> entry : commitData) {
+                if (entry.getKey().equals(key)) {
+                    return entry.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Saves whether the index was closed cleanly, along with the database it
+     * was built from, with every commit from now on.
+     */
+    private void setClosedCleanly(boolean closedCleanly) throws IOException {
+        Map<String, String> commitData = new HashMap<>();
+        commitData.put(CLEAN_SHUTDOWN_KEY, Boolean.toString(closedCleanly));
+        if (myDatabaseUrl != null) {
+            commitData.put(DATABASE_KEY, myDatabaseUrl);
+        }
+        myWriter.setLiveCommitData(commitData.entrySet());
+        myWriter.commit();
+    }
+
+    private static Term idTerm(Long bagId) {
+        return new Term(ID_FIELD, bagId.toString());
+    }
+
+    static Document makeDocument(Bag bag) {
+        Document doc = new Document();
+        doc.add(new StringField(ID_FIELD, bag.getId().toString(), Field.Store.NO));
+        doc.add(new NumericDocValuesField(ID_FIELD, bag.getId()));
+        addText(doc, "filename", bag.getFilename());
+        addText(doc, "path", bag.getPath());
+        addText(doc, "description", bag.getDescription());
+        addText(doc, "location", bag.getLocation());
+        addText(doc, "vehicle", bag.getVehicle());
+        for (Tag tag : bag.getTags()) {
+            addText(doc, "tags", tag.getTag());
+            addText(doc, "tags", tag.getValue());
+        }
+        for (MessageType type : bag.getMessageTypes()) {
+            addText(doc, "messageType", type.getName());
+        }
+        for (Topic topic : bag.getTopics()) {
+            addText(doc, "topicName", topic.getTopicName());
+        }
+        return doc;
+    }
+
+    private static void addText(Document doc, String field, String value) {
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+        doc.add(new TextField(field, value, Field.Store.NO));
+        String raw = value.toLowerCase(Locale.ROOT);
+        if (raw.length() > MAX_RAW_LENGTH) {
+            raw = raw.substring(0, MAX_RAW_LENGTH);
+        }
+        doc.add(new StringField(field + RAW_SUFFIX, raw, Field.Store.NO));
+    }
+
+    static Query makeQuery(String text, Collection<String> fields) {
+        String lowerText = text.toLowerCase(Locale.ROOT);
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (String field : fields) {
+            Query query;
+            if (lowerText.length() >= GRAM_SIZE) {
+                // Every trigram in the text has to appear in the same order,
+                // with nothing in between.
+                PhraseQuery.Builder phrase = new PhraseQuery.Builder();
+                for (int i = 0; i + GRAM_SIZE <= lowerText.length(); i++) {
+                    phrase.add(new Term(field, lowerText.substring(i, i + GRAM_SIZE)), i);
+                }
+                query = phrase.build();
+            }
+            else {
+                query = new WildcardQuery(new Term(field + RAW_SUFFIX,
+                                                   "*" + escapeWildcards(lowerText) + "*"));
+            }
+            builder.add(query, BooleanClause.Occur.SHOULD);
+        }
+        return builder.build();
+    }
+
+    private static String escapeWildcards(String text) {
+        StringBuilder escaped = new StringBuilder();
+        for (char c : text.toCharArray()) {
+            if (c == WildcardQuery.WILDCARD_STRING || c == WildcardQuery.WILDCARD_CHAR ||
+                    c == WildcardQuery.WILDCARD_ESCAPE) {
+                escaped.append(WildcardQuery.WILDCARD_ESCAPE);
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Splits values into overlapping, lowercase, three-character grams, so
+     * "/Odom" becomes "/od", "odo", "dom".
+     */
+    private static class TrigramTokenizer extends Tokenizer {
+        private final CharTermAttribute myTermAttribute = addAttribute(CharTermAttribute.class);
+        private String myText = null;
+        private int myOffset = 0;
+
+        @Override
+        public boolean incrementToken() throws IOException {
+            clearAttributes();
+            if (myText == null) {
+                myText = CharStreams.toString(input).toLowerCase(Locale.ROOT);
+                myOffset = 0;
+            }
+            if (myOffset + GRAM_SIZE > myText.length()) {
+                return false;
+            }
+            myTermAttribute.append(myText, myOffset, myOffset + GRAM_SIZE);
+            myOffset++;
+            return true;
+        }
+
+        @Override
+        public void reset() throws IOException {
+            super.reset();
+            myText = null;
+        }
+    }
+
+    private static class TrigramAnalyzer extends Analyzer {
+        @Override
+        protected TokenStreamComponents createComponents(String fieldName) {
+            return new TokenStreamComponents(new TrigramTokenizer());
+        }
+
+        @Override
+        public int getPositionIncrementGap(String fieldName) {
+            // Keeps phrases from matching across two values of the same field,
+            // such as the end of one topic name and the start of the next.
+            return 100;
+        }
+    }
+
+    private static class BagIdCollector extends SimpleCollector {
+        private final List<Long> myBagIds = new ArrayList<>();
+        private NumericDocValues myIds;
+
+        List<Long> getBagIds() {
+            return myBagIds;
+        }
+
+        @Override
+        protected void doSetNextReader(LeafReaderContext context) throws IOException {
+            myIds = DocValues.getNumeric(context.reader(), ID_FIELD);
+        }
+
+        @Override
+        public void collect(int doc) throws IOException {
+            if (myIds.advanceExact(doc)) {
+                myBagIds.add(myIds.longValue());
+            }
+        }
+
+        @Override
+        public ScoreMode scoreMode() {
+            return ScoreMode.COMPLETE_NO_SCORES;
+        }
+    }
+
+    @Override
+    protected String getStatusProviderName() {
+        return "Search Index";
+    }
+}
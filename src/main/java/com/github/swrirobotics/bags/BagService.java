@@ -37,6 +37,7 @@ import com.github.swrirobotics.bags.reader.TopicInfo;
 import com.github.swrirobotics.bags.reader.exceptions.BagReaderException;
 import com.github.swrirobotics.bags.reader.exceptions.UninitializedFieldException;
 import com.github.swrirobotics.bags.reader.messages.serialization.*;
+import com.github.swrirobotics.bags.filesystem.BagTreeCache;
 import com.github.swrirobotics.bags.reader.records.Connection;
 import com.github.swrirobotics.config.ConfigService;
 import com.github.swrirobotics.persistence.MessageType;
@@ -49,15 +50,23 @@ import com.github.swrirobotics.status.Status;
 import com.github.swrirobotics.status.StatusProvider;
 import com.github.swrirobotics.support.web.BagList;
 import com.github.swrirobotics.support.web.BagTreeNode;
+import com.github.swrirobotics.support.web.Configuration;
 import com.github.swrirobotics.support.web.ExtJsFilter;
+import com.github.swrirobotics.support.web.SearchCursor;
 import com.google.common.base.Joiner;
-import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Striped;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
+import org.hibernate.exception.ConstraintViolationException;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.Point;
@@ -67,34 +76,38 @@ import org.opencv.core.Mat;
 import org.opencv.imgproc.Imgproc;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeanWrapperImpl;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.annotation.PostConstruct;
 import javax.imageio.ImageIO;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
 import javax.persistence.Query;
+import javax.persistence.Tuple;
 import javax.persistence.TypedQuery;
 import javax.persistence.criteria.*;
 import java.awt.image.BufferedImage;
 import java.io.*;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.DirectoryStream;
-import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.sql.Timestamp;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class BagService extends StatusProvider {
@@ -105,19 +118,63 @@ public class BagService extends StatusProvider {
     @Autowired
     private MessageTypeRepository myMTRepository;
     @Autowired
-    private TopicRepository myTopicRepository;
-    @Autowired
     private TagRepository myTagRepository;
     @Autowired
+    private BagFingerprintRepository myFingerprintRepository;
+    @Autowired
+    private BagBulkWriter myBulkWriter;
+    @Autowired
     public ConfigService myConfigService;
     @Autowired
     private GeocodingService myGeocodingService;
     @Autowired
     private ScriptService myScriptService;
+    @Autowired
+    private BagSearchIndex mySearchIndex;
+    @Autowired
+    private BagSearchCache mySearchCache;
+    @Autowired
+    private BagPathCounter myPathCounter;
+    @Autowired
+    private BagTreeCache myTreeCache;
+    @Autowired
+    private ApplicationEventPublisher myEventPublisher;
+    // Methods called through this go through Spring's proxy, so their
+    // @Transactional annotations take effect; calls on "this" skip it.
+    @Autowired
+    @Lazy
+    private BagService myTransactionalSelf;
     @PersistenceContext
     private EntityManager myEM;
 
-    final private Object myBagDbLock = new Object();
+    // Message types are shared by many bags; inserting a new one is guarded
+    // by a lock that is picked based on its name and MD5 sum.
+    private final Striped<Lock> myMessageTypeLocks = Striped.lock(64);
+    // There are usually only a few hundred distinct message types, and every
+    // bag uses dozens of them, so keep them in memory rather than looking them
+    // up in the database for every bag.  Message types are never modified or
+    // deleted once they've been inserted, so cached entries don't go stale.
+    private static final int MESSAGE_TYPE_CACHE_SIZE = 10000;
+    private final Cache<MessageTypeKey, MessageType> myMessageTypeCache =
+            CacheBuilder.newBuilder().maximumSize(MESSAGE_TYPE_CACHE_SIZE).build();
+
+    // Bags in the database are checked against the file system in chunks of
+    // this many; it also limits the size of "IN" lists for bulk updates.
+    private static final int DATABASE_SCAN_CHUNK_SIZE = 1000;
+
+    // Text searches that match more bags than this are done in the database
+    // rather than passing all of the matching IDs to it.
+    private static final int MAX_INDEXED_SEARCH_MATCHES = 30000;
+
+    // The columns that are selected for each row in the bag grid.
+    private static final List<String> GRID_COLUMNS = ImmutableList.of(
+            "id", "filename", "path", "version", "duration", "startTime", "endTime",
+            "size", "messageCount", "indexed", "compressed", "createdOn", "missing",
+            "hasPath", "vehicle", "description", "md5sum", "location", "latitudeDeg",
+            "longitudeDeg", "updatedOn");
+
+    // Constraint name is hard-coded in db.changelog-1.0.yaml
+    private static final String BAG_MD5SUM_CONSTRAINT = "uk_a2r00kd2qd94dohkimsp5rdgn";
 
     private final GeometryFactory myGeometryFactory =
             new GeometryFactory(new PrecisionModel(PrecisionModel.FLOATING), 4326);
@@ -136,16 +193,18 @@ public class BagService extends StatusProvider {
         }
     }
 
-    private static class GpsPosition {
-        GpsPosition(Float64Type latitudeType, Float64Type longitudeType, TimeType timeType)
-                throws UninitializedFieldException {
-            latitude = latitudeType.getValue();
-            longitude = longitudeType.getValue();
-            stamp = timeType.getValue();
+    @PostConstruct
+    public void loadMessageTypeCache() {
+        try {
+            for (MessageType mt : myMTRepository.findAll()) {
+                myMessageTypeCache.put(makeMessageTypeKey(mt.getName(), mt.getMd5sum()), mt);
+            }
+            myLogger.info("Cached " + myMessageTypeCache.size() + " message types.");
+        }
+        catch (RuntimeException e) {
+            // Not fatal; message types will be cached as they're looked up.
+            myLogger.warn("Unable to load message types", e);
         }
-        double latitude;
-        double longitude;
-        Timestamp stamp;
     }
 
     @Transactional(readOnly = true)
@@ -840,36 +899,34 @@ public class BagService extends StatusProvider {
         return output;
     }
 
-    @Transactional
+    /**
+     * Removes every bag that has the same MD5 sum as another bag, keeping the
+     * one that was added first.  Duplicates are found by the database, and
+     * they are deleted in chunks that each commit separately.
+     */
     public void removeDuplicateBags() {
         String msg = "Removing duplicate bag files.";
         myLogger.info(msg);
         reportStatus(Status.State.WORKING, msg);
-        List<Bag> bags = bagRepository.findAll();
-        Map<String, List<Bag>> md5Bags = Maps.newHashMap();
-
-        for (Bag bag : bags) {
-            List<Bag> tmp = md5Bags.computeIfAbsent(bag.getMd5sum(), k -> Lists.newArrayList());
-            tmp.add(bag);
-        }
-
-        myLogger.info("Found " + bags.size() + " bags with " +
-                      md5Bags.keySet().size() + " different MD5s.");
-
-        for (List<Bag> sublist : md5Bags.values()) {
-            if (sublist.size() > 1) {
-                myLogger.debug("Found " + sublist.size() +
-                    " duplicates for MD5 sum " + sublist.get(0).getMd5sum() + ".");
-                for (int i = 1; i < sublist.size(); i++) {
-                    Bag dupBag = sublist.get(i);
-                    msg = "Removing bag w/ ID " + dupBag.getMd5sum();
-                    myLogger.debug(msg);
-                    reportStatus(Status.State.WORKING, msg);
-                    bagRepository.delete(dupBag);
-                }
+        List<String> md5sums = bagRepository.findDuplicateMd5sums();
+        myLogger.info("Found " + md5sums.size() + " MD5 sums with duplicate bags.");
+
+        int md5sumsDone = 0;
+        int bagsRemoved = 0;
+        for (List<String> md5Chunk : Lists.partition(md5sums, DATABASE_SCAN_CHUNK_SIZE)) {
+            List<Long> duplicateIds = bagRepository.findDuplicateIds(md5Chunk);
+            for (List<Long> idChunk : Lists.partition(duplicateIds, DATABASE_SCAN_CHUNK_SIZE)) {
+                bagsRemoved += bagRepository.deleteBagsById(idChunk);
+                myEventPublisher.publishEvent(new BagsChangedEvent(idChunk));
             }
+            md5sumsDone += md5Chunk.size();
+            msg = "Removing duplicates: " + md5sumsDone + " of " + md5sums.size() +
+                    " MD5 sums done, " + bagsRemoved + " bags removed.";
+            myLogger.debug(msg);
+            reportStatus(Status.State.WORKING, msg);
         }
-        msg = "Done removing duplicates.";
+
+        msg = "Done removing duplicates; removed " + bagsRemoved + " bags.";
         myLogger.info(msg);
         reportStatus(Status.State.IDLE, msg);
     }
@@ -895,6 +952,7 @@ public class BagService extends StatusProvider {
         dbBag.getTags().addAll(newBag.getTags());
         dbBag.setUpdatedOn(new Timestamp(System.currentTimeMillis()));
         bagRepository.save(dbBag);
+        myEventPublisher.publishEvent(new BagsChangedEvent(dbBag.getId()));
     }
 
     public void uploadBag(MultipartFile file, String targetDirectory) throws IOException {
@@ -927,14 +985,6 @@ public class BagService extends StatusProvider {
         FileUtils.copyInputStreamToFile(file.getInputStream(), targetFile);
     }
 
-    private Pageable createPageRequest(int page, int size, String dir, String sort) {
-        // ExtJS starts counting pages at 1, but Spring Data JPA starts counting at 0.
-        return PageRequest.of(page-1,
-                               size,
-                               dir.equalsIgnoreCase("ASC") ? Sort.Direction.ASC : Sort.Direction.DESC,
-                               sort);
-    }
-
     private <X> Predicate fromFilter(ExtJsFilter filter, CriteriaBuilder cb, Path<X> path) {
         Timestamp ts = null;
         switch (filter.getProperty()) {
@@ -1022,6 +1072,61 @@ public class BagService extends StatusProvider {
         return cb.or(preds.toArray(new Predicate[0]));
     }
 
+    /**
+     * Like {@link #fullTextPredicate}, but searches the related tables with
+     * subqueries rather than joins.  This is used on PostgreSQL, where each
+     * subquery can use the trigram indexes on its table, and since a bag can
+     * only match once, the search doesn't need a DISTINCT over the whole result.
+     */
+    private Predicate subqueryTextPredicate(final String text,
+                                            final String[] fields,
+                                            CriteriaQuery<?> query,
+                                            CriteriaBuilder cb,
+                                            Root<Bag> root) {
+        final String wildcardText = "%" + text.toLowerCase() + "%";
+
+        List<Predicate> preds = Lists.newArrayList();
+        for (String field : fields) {
+            switch(field) {
+                case "messageType": {
+                    Subquery<Long> subquery = query.subquery(Long.class);
+                    Root<Bag> subBag = subquery.from(Bag.class);
+                    Join<Bag, MessageType> mtJoin = subBag.join(Bag_.messageTypes);
+                    subquery.select(subBag.get(Bag_.id))
+                            .where(cb.like(cb.lower(mtJoin.get(MessageType_.name)), wildcardText));
+                    preds.add(root.get(Bag_.id).in(subquery));
+                    break;
+                }
+                case "tags": {
+                    Subquery<Long> subquery = query.subquery(Long.class);
+                    Root<Tag> tag = subquery.from(Tag.class);
+                    subquery.select(tag.get(Tag_.bagId))
+                            .where(cb.or(cb.like(cb.lower(tag.get(Tag_.tag)), wildcardText),
+                                         cb.like(cb.lower(tag.get(Tag_.value)), wildcardText)));
+                    preds.add(root.get(Bag_.id).in(subquery));
+                    break;
+                }
+                case "topicName": {
+                    Subquery<Long> subquery = query.subquery(Long.class);
+                    Root<Topic> topic = subquery.from(Topic.class);
+                    subquery.select(topic.get(Topic_.bagId))
+                            .where(cb.like(cb.lower(topic.get(Topic_.topicName)), wildcardText));
+                    preds.add(root.get(Bag_.id).in(subquery));
+                    break;
+                }
+                default:
+                    preds.add(cb.like(cb.lower(root.get(field)), wildcardText));
+                    break;
+            }
+        }
+
+        return cb.or(preds.toArray(new Predicate[0]));
+    }
+
+    private boolean isPostgres() {
+        return "org.postgresql.Driver".equals(myConfigService.getConfiguration().getDriver());
+    }
+
     @Transactional(readOnly = true)
     public BagList findBagsContainingText(final String text,
                                           final String[] fields,
@@ -1030,50 +1135,350 @@ public class BagService extends StatusProvider {
                                           int size,
                                           String dir,
                                           String sort) {
-        myLogger.trace("Executing specification.");
+        return findBagsContainingText(text, fields, filters, page, size, dir, sort, null, true, true);
+    }
 
-        Page<Bag> bags;
-        Pageable pageReq = createPageRequest(page, size, dir, sort);
+    /**
+     * Finds a page of bags that contain some text and match a set of filters.
+     * @param page The page to get; ExtJS starts counting pages at 1.
+     * @param after If not null, the cursor from the previous page; the page
+     *              will be found by seeking past that bag rather than with
+     *              an offset, which is much faster for pages deep into a
+     *              large set of results.
+     * @param fillTopics Whether to get the topics in each bag.
+     * @param fillTypes Whether to get the message types in each bag.
+     * @return The bags on the page.  These aren't attached to the database
+     * and only have the fields that the bag grid displays, along with their
+     * tags and, if requested, their topics and message types.
+     */
+    @Transactional(readOnly = true)
+    public BagList findBagsContainingText(final String text,
+                                          final String[] fields,
+                                          final ExtJsFilter[] filters,
+                                          int page,
+                                          int size,
+                                          String dir,
+                                          String sort,
+                                          SearchCursor after,
+                                          boolean fillTopics,
+                                          boolean fillTypes) {
+        final boolean hasText = text != null && !text.trim().isEmpty() &&
+                fields != null && fields.length != 0;
+        final String searchKey = makeSearchKey(hasText ? text : null, fields, filters);
+        String pageKey = searchKey + page + ' ' + size + ' ' + sort + ' ' + dir.toUpperCase() +
+                         ' ' + after + ' ' + fillTopics + ' ' + fillTypes;
+        return mySearchCache.getResults(pageKey, () -> searchBags(
+                hasText, text, fields, filters, page, size, dir, sort, after, fillTopics, fillTypes, searchKey));
+    }
+
+    private BagList searchBags(final boolean hasText,
+                               final String text,
+                               final String[] fields,
+                               final ExtJsFilter[] filters,
+                               int page,
+                               int size,
+                               String dir,
+                               String sort,
+                               SearchCursor after,
+                               boolean fillTopics,
+                               boolean fillTypes,
+                               String searchKey) {
+        myLogger.trace("Executing specification.");
 
-        if ((text == null || text.trim().isEmpty() || fields == null || fields.length == 0) &&
-            (filters == null || filters.length == 0)) {
-            bags = bagRepository.findAll(pageReq);
+        final List<Long> matchingIds = hasText ? findIndexedBagIds(text, fields) : null;
+        final boolean useSubqueries = hasText && matchingIds == null && isPostgres();
+        if (matchingIds != null && matchingIds.isEmpty()) {
+            return new BagList(Lists.newArrayList(), 0L);
         }
-        else {
-            bags = bagRepository.findAll((root, query, cb) -> {
-                // We only want one result per bag file, though.
-                query.distinct(true);
 
-                List<Predicate> preds = Lists.newArrayList();
-                if (text != null && !text.trim().isEmpty() &&
-                    fields != null && fields.length != 0) {
-                    preds.add(fullTextPredicate(text, fields, cb, root));
-                }
-                if (filters != null && filters.length > 0) {
-                    for (ExtJsFilter filter : filters) {
-                        preds.add(fromFilter(filter, cb, root));
-                    }
+        Specification<Bag> spec = (root, query, cb) -> {
+            List<Predicate> preds = Lists.newArrayList();
+            if (matchingIds != null) {
+                preds.add(root.get(Bag_.id).in(matchingIds));
+            }
+            else if (useSubqueries) {
+                preds.add(subqueryTextPredicate(text, fields, query, cb, root));
+            }
+            else if (hasText) {
+                // Searching joined tables can return the same bag
+                // multiple times, but we only want one result per bag.
+                query.distinct(true);
+                preds.add(fullTextPredicate(text, fields, cb, root));
+            }
+            if (filters != null && filters.length > 0) {
+                for (ExtJsFilter filter : filters) {
+                    preds.add(fromFilter(filter, cb, root));
                 }
+            }
 
-                if (preds.size() == 1) {
-                    return preds.get(0);
-                }
-                else {
-                    return cb.and(preds.toArray(new Predicate[0]));
-                }
-            }, pageReq);
-        }
+            if (preds.size() == 1) {
+                return preds.get(0);
+            }
+            else {
+                return cb.and(preds.toArray(new Predicate[0]));
+            }
+        };
+
+        boolean ascending = dir.equalsIgnoreCase("ASC");
+        List<Bag> bags = findBagPage(spec, ascending, sort, (page - 1) * size, size, after);
+        fillBagCollections(bags, fillTopics, fillTypes);
+        long totalCount = mySearchCache.getCount(searchKey, page == 1, () -> bagRepository.count(spec));
         myLogger.trace("Finished executing.");
 
-        return new BagList(bags.getContent(), bags.getTotalElements());
+        BagList bagList = new BagList(bags, totalCount);
+        if (!bags.isEmpty()) {
+            Bag lastBag = bags.get(bags.size() - 1);
+            Object sortValue = new BeanWrapperImpl(lastBag).getPropertyValue(sort);
+            bagList.setNextCursor(SearchCursor.of(lastBag.getId(), sortValue).toString());
+        }
+        return bagList;
+    }
+
+    /**
+     * Gets one page of bags, sorted by a column and then by ID so that every
+     * bag has a well-defined position.  Only the columns shown in the bag grid
+     * are selected; loading whole entities would also load all of their
+     * eagerly-fetched collections, one bag at a time.
+     * @param offset The number of bags to skip if there is no cursor.
+     * @param after If not null, only bags after this one are returned.
+     */
+    private List<Bag> findBagPage(Specification<Bag> spec,
+                                  boolean ascending,
+                                  String sort,
+                                  int offset,
+                                  int size,
+                                  SearchCursor after) {
+        CriteriaBuilder cb = myEM.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = cb.createTupleQuery();
+        Root<Bag> root = query.from(Bag.class);
+        Predicate pred = spec.toPredicate(root, query, cb);
+        if (after != null) {
+            pred = cb.and(pred, seekPredicate(after, ascending, sort, cb, root));
+        }
+        query.multiselect(selectGridColumns(root)).where(pred);
+
+        Sort.Direction direction = ascending ? Sort.Direction.ASC : Sort.Direction.DESC;
+        Sort order = sort.equals("id") ? Sort.by(direction, "id") : Sort.by(direction, sort, "id");
+        query.orderBy(QueryUtils.toOrders(order, root, cb));
+
+        TypedQuery<Tuple> typedQuery = myEM.createQuery(query).setMaxResults(size);
+        if (after == null) {
+            typedQuery.setFirstResult(offset);
+        }
+        return typedQuery.getResultList().stream()
+                .map(BagService::makeGridBag)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Gets the bags that are directly inside a directory, with the same
+     * columns and tags as a page of the bag grid.
+     * @param path The directory, with a trailing slash.
+     */
+    private List<Bag> findDirectoryBags(String path) {
+        CriteriaBuilder cb = myEM.getCriteriaBuilder();
+        CriteriaQuery<Tuple> query = cb.createTupleQuery();
+        Root<Bag> root = query.from(Bag.class);
+        query.multiselect(selectGridColumns(root))
+             .where(cb.equal(root.get(Bag_.path), path));
+        List<Bag> bags = myEM.createQuery(query).getResultList().stream()
+                .map(BagService::makeGridBag)
+                .collect(Collectors.toList());
+        fillBagCollections(bags, false, false);
+        return bags;
+    }
+
+    private static List<Selection<?>> selectGridColumns(Root<Bag> root) {
+        return GRID_COLUMNS.stream()
+                .<Selection<?>>map(column -> root.get(column).alias(column))
+                .collect(Collectors.toList());
+    }
+
+    private static Bag makeGridBag(Tuple row) {
+        Bag bag = new Bag();
+        bag.setId(row.get("id", Long.class));
+        bag.setFilename(row.get("filename", String.class));
+        bag.setPath(row.get("path", String.class));
+        bag.setVersion(row.get("version", String.class));
+        bag.setDuration(row.get("duration", Double.class));
+        bag.setStartTime(row.get("startTime", Timestamp.class));
+        bag.setEndTime(row.get("endTime", Timestamp.class));
+        bag.setSize(row.get("size", Long.class));
+        bag.setMessageCount(row.get("messageCount", Long.class));
+        bag.setIndexed(row.get("indexed", Boolean.class));
+        bag.setCompressed(row.get("compressed", Boolean.class));
+        bag.setCreatedOn(row.get("createdOn", Timestamp.class));
+        bag.setMissing(row.get("missing", Boolean.class));
+        bag.setHasPath(row.get("hasPath", Boolean.class));
+        bag.setVehicle(row.get("vehicle", String.class));
+        bag.setDescription(row.get("description", String.class));
+        bag.setMd5sum(row.get("md5sum", String.class));
+        bag.setLocation(row.get("location", String.class));
+        bag.setLatitudeDeg(row.get("latitudeDeg", Double.class));
+        bag.setLongitudeDeg(row.get("longitudeDeg", Double.class));
+        bag.setUpdatedOn(row.get("updatedOn", Timestamp.class));
+        return bag;
+    }
+
+    /**
+     * Fills in the tags, and optionally the topics and message types, for a
+     * page of bags from {@link #findBagPage}.  Each collection is read with a
+     * single query for the whole page.
+     */
+    private void fillBagCollections(List<Bag> bags, boolean fillTopics, boolean fillTypes) {
+        if (bags.isEmpty()) {
+            return;
+        }
+        Map<Long, Bag> bagsById = bags.stream().collect(Collectors.toMap(Bag::getId, bag -> bag));
+
+        List<Object[]> tagRows = myEM.createQuery(
+                "SELECT t.bagId, t.tag, t.value FROM Tag t WHERE t.bagId IN :bagIds", Object[].class)
+                .setParameter("bagIds", bagsById.keySet())
+                .getResultList();
+        for (Object[] row : tagRows) {
+            Bag bag = bagsById.get((Long) row[0]);
+            Tag tag = new Tag();
+            tag.setBagId(bag.getId());
+            tag.setTag((String) row[1]);
+            tag.setValue((String) row[2]);
+            bag.getTags().add(tag);
+        }
+
+        Map<MessageTypeKey, MessageType> messageTypes = Maps.newHashMap();
+        if (fillTopics) {
+            List<Object[]> topicRows = myEM.createQuery(
+                    "SELECT t.bagId, t.topicName, t.messageCount, t.connectionCount, " +
+                    "t.type.name, t.type.md5sum FROM Topic t WHERE t.bagId IN :bagIds", Object[].class)
+                    .setParameter("bagIds", bagsById.keySet())
+                    .getResultList();
+            for (Object[] row : topicRows) {
+                Bag bag = bagsById.get((Long) row[0]);
+                Topic topic = new Topic();
+                topic.setBag(bag);
+                topic.setTopicName((String) row[1]);
+                topic.setMessageCount((Long) row[2]);
+                topic.setConnectionCount((Long) row[3]);
+                topic.setType(makeGridMessageType(messageTypes, (String) row[4], (String) row[5]));
+                bag.getTopics().add(topic);
+            }
+        }
+
+        if (fillTypes) {
+            List<Object[]> typeRows = myEM.createQuery(
+                    "SELECT b.id, mt.name, mt.md5sum FROM Bag b JOIN b.messageTypes mt " +
+                    "WHERE b.id IN :bagIds", Object[].class)
+                    .setParameter("bagIds", bagsById.keySet())
+                    .getResultList();
+            for (Object[] row : typeRows) {
+                bagsById.get((Long) row[0]).getMessageTypes().add(
+                        makeGridMessageType(messageTypes, (String) row[1], (String) row[2]));
+            }
+        }
+    }
+
+    private static MessageType makeGridMessageType(Map<MessageTypeKey, MessageType> messageTypes,
+                                                   String name,
+                                                   String md5sum) {
+        return messageTypes.computeIfAbsent(makeMessageTypeKey(name, md5sum), key -> {
+            MessageType messageType = new MessageType();
+            messageType.setName(name);
+            messageType.setMd5sum(md5sum);
+            return messageType;
+        });
     }
 
+    /**
+     * Matches the bags that come after a cursor when sorting by a column and
+     * then by ID.  PostgreSQL sorts null values as if they were larger than
+     * every other value, and H2 sorts them as if they were smaller.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Predicate seekPredicate(SearchCursor after,
+                                    boolean ascending,
+                                    String sort,
+                                    CriteriaBuilder cb,
+                                    Root<Bag> root) {
+        Path<Long> id = root.get(Bag_.id);
+        Predicate afterId = ascending ? cb.gt(id, after.getId()) : cb.lt(id, after.getId());
+        if (sort.equals("id")) {
+            return afterId;
+        }
+
+        Path<Comparable> column = root.get(sort);
+        Comparable value = (Comparable) after.getValue(column.getJavaType());
+        boolean nullsLast = ascending == isPostgres();
+        if (value == null) {
+            Predicate pred = cb.and(cb.isNull(column), afterId);
+            return nullsLast ? pred : cb.or(pred, cb.isNotNull(column));
+        }
+
+        Predicate pred = cb.or(ascending ? cb.greaterThan(column, value) : cb.lessThan(column, value),
+                               cb.and(cb.equal(column, value), afterId));
+        return nullsLast ? cb.or(pred, cb.isNull(column)) : pred;
+    }
+
+    /**
+     * Makes a string that identifies a search, regardless of which page of
+     * its results are being requested.  Text searches ignore case, so the
+     * text is converted to lower case.
+     */
+    private static String makeSearchKey(String text, String[] fields, ExtJsFilter[] filters) {
+        StringBuilder key = new StringBuilder();
+        if (text != null) {
+            key.append(text.toLowerCase()).append('\n');
+            Arrays.stream(fields).sorted().forEach(field -> key.append(field).append(','));
+        }
+        key.append('\n');
+        if (filters != null) {
+            for (ExtJsFilter filter : filters) {
+                key.append(filter.getProperty()).append(' ')
+                   .append(filter.getOperator()).append(' ')
+                   .append(filter.getValue()).append('\n');
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Searches the full-text index for bags containing some text.
+     * @return The IDs of the matching bags, or null if the database should be
+     * searched instead, either because the index can't be used or because
+     * there are too many matches to pass to the database.
+     */
+    private List<Long> findIndexedBagIds(String text, String[] fields) {
+        List<Long> bagIds = mySearchIndex.findBagIds(text, Arrays.asList(fields));
+        if (bagIds == null) {
+            myLogger.debug("Search index can't be used; searching the database.");
+        }
+        else if (bagIds.size() > MAX_INDEXED_SEARCH_MATCHES) {
+            myLogger.debug("Search matched " + bagIds.size() + " bags; searching the database.");
+            return null;
+        }
+        return bagIds;
+    }
+
+    /**
+     * Gets GPS coordinates for a set of bags.
+     * @param bagIds The bags to get coordinates for.
+     * @param maxPoints If not null, returns the most detailed path that has no
+     *                  more than this many points.  The coarsest level of detail
+     *                  is always returned, even if it has more points.
+     * @return A list of longitude/latitude pairs.
+     */
     @Transactional(readOnly = true)
-    public List<Double[]> getGpsCoordsForBags(final Collection<Long> bagIds) {
+    public List<Double[]> getGpsCoordsForBags(final Collection<Long> bagIds, final Integer maxPoints) {
         myLogger.debug("getGpsCoordsForBags: " + Joiner.on(", ").skipNulls().join(bagIds));
 
-        List<BagPosition> positions =
-                myBagPositionRepository.findByBagIdInOrderByPositionTimeAsc(bagIds);
+        List<BagPosition> positions;
+        if (maxPoints == null) {
+            positions = myBagPositionRepository.findByBagIdInOrderByPositionTimeAsc(bagIds);
+        }
+        else {
+            int detailLevel = getDetailLevelForPointBudget(bagIds, maxPoints);
+            myLogger.debug("Using detail level " + detailLevel + " for " + maxPoints + " points.");
+            positions = myBagPositionRepository.findByBagIdInAndDetailLevelLessThanEqualOrderByPositionTimeAsc(
+                    bagIds, detailLevel);
+        }
 
         List<Double[]> coords = positions.parallelStream().map(p -> new Double[] {
                 p.getLongitude(), p.getLatitude()}).collect(Collectors.toList());
@@ -1083,76 +1488,82 @@ public class BagService extends StatusProvider {
         return coords;
     }
 
-    @Transactional(readOnly = true)
-    public List<Long> getAllBagIds() {
-        List<Bag> bags = bagRepository.findAll();
-        List<Long> bagIds = Lists.newArrayListWithCapacity(bags.size());
+    /**
+     * Finds the finest level of detail for which a set of bags has no more than
+     * a certain number of GPS positions.
+     */
+    private int getDetailLevelForPointBudget(final Collection<Long> bagIds, final int maxPoints) {
+        int detailLevel = 0;
+        long total = 0;
+        for (Object[] levelCount : myBagPositionRepository.countByDetailLevel(bagIds)) {
+            total += (Long) levelCount[1];
+            if (total > maxPoints) {
+                break;
+            }
+            detailLevel = (Integer) levelCount[0];
+        }
+        return detailLevel;
+    }
 
-        bagIds.addAll(bags.parallelStream().map(Bag::getId).collect(Collectors.toList()));
+    /**
+     * Simplifies a GPS path at each of the configured tolerances and assigns
+     * each position its level of detail.
+     * @param gpsPositions The full GPS path.
+     * @return The positions that are needed for at least one level of detail.
+     */
+    private List<GpsPosition> simplifyGpsPath(final List<GpsPosition> gpsPositions) {
+        Double[] tolerances = myConfigService.getConfiguration().getGpsPathTolerances();
+        double[] tolerancesM = tolerances == null ? new double[0] :
+                Arrays.stream(tolerances).filter(Objects::nonNull).mapToDouble(Double::doubleValue).toArray();
+
+        double[] latitudes = new double[gpsPositions.size()];
+        double[] longitudes = new double[gpsPositions.size()];
+        for (int i = 0; i < gpsPositions.size(); i++) {
+            latitudes[i] = gpsPositions.get(i).latitude;
+            longitudes[i] = gpsPositions.get(i).longitude;
+        }
+
+        int[] levels = GpsPathSimplifier.computeDetailLevels(latitudes, longitudes, tolerancesM);
+        List<GpsPosition> simplified = Lists.newArrayList();
+        for (int i = 0; i < levels.length; i++) {
+            if (levels[i] != GpsPathSimplifier.DISCARDED) {
+                GpsPosition pos = gpsPositions.get(i);
+                pos.detailLevel = levels[i];
+                simplified.add(pos);
+            }
+        }
+        return simplified;
+    }
 
-        return bagIds;
+    /**
+     * Gets the IDs of every bag in pages, without loading the bags.
+     * @param pageSize The maximum number of IDs in each page.
+     * @return The pages of bag IDs, in ascending order.
+     * @see BagRepository#findIdPages(int)
+     */
+    public Iterable<List<Long>> getAllBagIds(int pageSize) {
+        return bagRepository.findIdPages(pageSize);
     }
 
     private List<GpsPosition> getAllGpsMessages(BagFile bag) {
-        List<GpsPosition> positions = Lists.newArrayList();
-
-        MessageHandler gpsHandler = ((message, conn) -> {
-            try {
-                positions.add(new GpsPosition(message.getField("latitude"),
-                                              message.getField("longitude"),
-                                              message.<com.github.swrirobotics.bags.reader.messages.serialization.MessageType>getField(
-                                                      "header").getField("stamp")));
-            }
-            catch (UninitializedFieldException e) {
-                return false;
-            }
-            catch (NullPointerException e) {
-                // This will be thrown if the topic we're looking at doesn't actually
-                // have "latitude", "longitude", or "header" fields, in which case
-                // it's pointless to look at any other messages on this topic.
-                return true;
-            }
-            return true;
-        });
-
         try {
-            String[] gpsTopics = myConfigService.getConfiguration().getGpsTopics();
-            for (String topic : gpsTopics) {
-                bag.forMessagesOnTopic(topic, gpsHandler);
-                if (!positions.isEmpty()) {
-                    break;
-                }
-            }
-
-            if (positions.isEmpty()) {
-                bag.forFirstTopicWithMessagesOfType("sensor_msgs/NavSatFix", gpsHandler);
-            }
-            if (positions.isEmpty()) {
-                bag.forFirstTopicWithMessagesOfType("gps_common/GPSFix", gpsHandler);
-            }
-            if (positions.isEmpty()) {
-                bag.forFirstTopicWithMessagesOfType("marti_gps_common/GPSFix", gpsHandler);
-            }
+            return new BagMetadataExtractor(myConfigService.getConfiguration(),
+                                            EnumSet.of(BagMetadataExtractor.Field.GPS_POSITIONS))
+                    .extract(bag).getGpsPositions();
         }
         catch (BagReaderException e) {
-            e.printStackTrace();
+            myLogger.error("Unable to read GPS positions from " + bag.getPath(), e);
+            return Lists.newArrayList();
         }
-
-        return positions;
     }
 
     public String getVehicleName(BagFile bag) {
-        String[] vehicleNames = myConfigService.getConfiguration().getVehicleNameTopics();
         try {
-            for (String topic : vehicleNames) {
-                com.github.swrirobotics.bags.reader.messages.serialization.MessageType
-                        mt = bag.getFirstMessageOnTopic(topic);
-                if (mt != null) {
-                    return mt.<StringType>getField("data").getValue().replaceAll("\\p{C}", "").trim();
-                }
-            }
+            return new BagMetadataExtractor(myConfigService.getConfiguration(),
+                                            EnumSet.of(BagMetadataExtractor.Field.VEHICLE_NAME))
+                    .extract(bag).getVehicleName();
         }
-        catch (BagReaderException | UninitializedFieldException e) {
+        catch (BagReaderException e) {
             // Do nothing
         }
         return null;
@@ -1174,31 +1585,16 @@ public class BagService extends StatusProvider {
      * @return A map of all of the key:value metadata in the bag.
      */
     private Map<String, String> getMetadata(BagFile bagFile) {
-        final Map<String, String> tags = Maps.newHashMap();
-        String[] topics = myConfigService.getConfiguration().getMetadataTopics();
         try {
-            final Splitter tagSplitter = Splitter.on(':').limit(2).trimResults();
-            final Splitter.MapSplitter lineSplitter =
-                    Splitter.on(System.getProperty("line.separator")).omitEmptyStrings().trimResults().withKeyValueSeparator(tagSplitter);
-            for (String topic : topics) {
-                bagFile.forMessagesOnTopic(topic, (message, connection) -> {
-                    try {
-                        String data = message.<StringType>getField("data").getValue();
-                        myLogger.debug("Examining message: " + data);
-                        tags.putAll(lineSplitter.split(data));
-                    }
-                    catch (UninitializedFieldException e) {
-                        // continue
-                    }
-                    return true;
-                });
-            }
+            return new BagMetadataExtractor(myConfigService.getConfiguration(),
+                                            EnumSet.of(BagMetadataExtractor.Field.METADATA))
+                    .extract(bagFile).getMetadata();
         }
-        catch (BagReaderException | java.util.NoSuchElementException e) {
+        catch (BagReaderException e) {
             reportStatus(Status.State.ERROR,
                     "Unable to get metadata from bag file " + bagFile.getPath() + ": " + e.getLocalizedMessage());
         }
-        return tags;
+        return Maps.newHashMap();
     }
 
     /**
@@ -1220,11 +1616,10 @@ public class BagService extends StatusProvider {
      * This differs slightly from getMetadata in that the Tags it returns
      * are suitable for inserting into the database, and the lengths of the
      * value strings are truncated to 255 characters.
-     * @param bagFile The bag file to pull tags from.
+     * @param metadata The key:value metadata read from a bag file.
      * @return A set of all of the tags in the bag file.
      */
-    private Set<Tag> extractTagsFromBagFile(BagFile bagFile) {
-        Map<String, String> metadata = getMetadata(bagFile);
+    private Set<Tag> extractTags(Map<String, String> metadata) {
         Set<Tag> tags = Sets.newHashSet();
 
         final int MAX_VALUE_LENGTH = 255;
@@ -1244,25 +1639,133 @@ public class BagService extends StatusProvider {
         return tags;
     }
 
-    @Transactional
-    public void updateGpsPositionsForBagId(long bagId) {
-        Bag bag = bagRepository.findById(bagId).orElseThrow();
+    /**
+     * Reads a bag's GPS positions from its file and inserts them, unless the
+     * bag already has some in the database.  The bag itself is not saved.
+     * @param bag The bag to update.
+     * @return True if the bag was modified and needs to be saved.
+     */
+    public boolean updateGpsPositionsForBag(final Bag bag) {
+        // Check this before reading the file, since most bags will already
+        // have their positions.
+        if (myBagPositionRepository.countByBagId(bag.getId()) > 0) {
+            if (Boolean.TRUE.equals(bag.getHasPath())) {
+                return false;
+            }
+            bag.setHasPath(true);
+            return true;
+        }
+
         String fullPath = bag.getPath() + bag.getFilename();
         try {
             BagFile bagFile = BagReader.readFile(fullPath);
             updateGpsPositions(bag, getAllGpsMessages(bagFile));
-            bagRepository.save(bag);
+            return true;
         }
         catch (BagReaderException e) {
             reportStatus(Status.State.ERROR,
                          "Unable to get GPS info for " + fullPath + ": " + e.getLocalizedMessage());
+            return false;
         }
     }
 
+    /**
+     * Fills in any of the selected fields that a bag doesn't already have by
+     * reading them from its bag file.  The file is only opened once, and only
+     * the topics needed for the missing fields are read.  Tags are saved and
+     * GPS positions are inserted immediately, but the bag itself is not saved.
+     * Fields that couldn't be found are recorded as having been checked so
+     * that the bag won't be read again for them; see
+     * {@link BagRepository#findByIdBetweenMissingFields}.
+     * @param bag The bag to update.
+     * @param fields The fields to fill in.
+     * @return True if the bag was modified and needs to be saved.
+     */
+    public boolean reextractFields(final Bag bag, final Set<DerivedField> fields) {
+        Configuration config = myConfigService.getConfiguration();
+        boolean modified = false;
+        Set<BagMetadataExtractor.Field> extractorFields = EnumSet.noneOf(BagMetadataExtractor.Field.class);
+
+        if (fields.contains(DerivedField.COORDINATE) && bag.getCoordinate() == null) {
+            extractorFields.add(BagMetadataExtractor.Field.FIRST_GPS_POSITION);
+        }
+        if (fields.contains(DerivedField.GPS_PATH)) {
+            if (myBagPositionRepository.countByBagId(bag.getId()) > 0) {
+                if (!Boolean.TRUE.equals(bag.getHasPath())) {
+                    bag.setHasPath(true);
+                    modified = true;
+                }
+            }
+            else {
+                extractorFields.add(BagMetadataExtractor.Field.GPS_POSITIONS);
+            }
+        }
+        if (fields.contains(DerivedField.VEHICLE_NAME) && bag.getVehicle() == null &&
+                config.getVehicleNameTopics().length > 0) {
+            extractorFields.add(BagMetadataExtractor.Field.VEHICLE_NAME);
+        }
+        if (fields.contains(DerivedField.TAGS) && bag.getTags().isEmpty() &&
+                config.getMetadataTopics().length > 0) {
+            extractorFields.add(BagMetadataExtractor.Field.METADATA);
+        }
+
+        if (extractorFields.isEmpty()) {
+            return modified;
+        }
+
+        String fullPath = bag.getPath() + bag.getFilename();
+        BagMetadataExtractor metadata;
+        try {
+            BagFile bagFile = BagReader.readFile(fullPath);
+            metadata = new BagMetadataExtractor(config, extractorFields).extract(bagFile);
+        }
+        catch (BagReaderException e) {
+            reportStatus(Status.State.ERROR,
+                         "Unable to re-extract fields from " + fullPath + ": " + e.getLocalizedMessage());
+            return modified;
+        }
+
+        List<GpsPosition> gpsPositions = metadata.getGpsPositions();
+        if (extractorFields.contains(BagMetadataExtractor.Field.FIRST_GPS_POSITION) &&
+                !gpsPositions.isEmpty()) {
+            GpsPosition pos = gpsPositions.get(0);
+            bag.setCoordinate(makePoint(pos.latitude, pos.longitude));
+            myLogger.debug("Setting lat/lon for " + fullPath + " to: " +
+                           pos.latitude + " / " + pos.longitude);
+            modified = true;
+        }
+        if (extractorFields.contains(BagMetadataExtractor.Field.GPS_POSITIONS)) {
+            updateGpsPositions(bag, gpsPositions);
+            modified = true;
+        }
+        else if (extractorFields.contains(BagMetadataExtractor.Field.FIRST_GPS_POSITION) &&
+                 gpsPositions.isEmpty() && !Boolean.TRUE.equals(bag.getHasPath())) {
+            // A bag without any GPS messages doesn't have a path, either.
+            bag.setHasPath(false);
+            modified = true;
+        }
+        if (metadata.getVehicleName() != null) {
+            myLogger.debug("Setting vehicle name for " + fullPath + " to " + metadata.getVehicleName());
+            bag.setVehicle(metadata.getVehicleName());
+            modified = true;
+        }
+        else if (extractorFields.contains(BagMetadataExtractor.Field.VEHICLE_NAME)) {
+            // An empty vehicle name means "checked, none found"; null means it
+            // hasn't been checked.  Users see both as a blank vehicle name.
+            bag.setVehicle("");
+            modified = true;
+        }
+        if (!metadata.getMetadata().isEmpty()) {
+            // This saves the tags itself.
+            addTagsToBag(metadata.getMetadata(), bag);
+        }
+
+        return modified;
+    }
+
     @Transactional
-    public void updateGpsPositions(final Bag bag, Collection<GpsPosition> gpsPositions) {
-        List<BagPosition> existingPositions = bag.getBagPositions();
-        if (!existingPositions.isEmpty()) {
+    public void updateGpsPositions(final Bag bag, List<GpsPosition> gpsPositions) {
+        if (myBagPositionRepository.countByBagId(bag.getId()) > 0) {
             myLogger.warn("Adding new GPS positions for a bag that already has " +
                                   "some in the database is not supported.  " +
                                   "Manually remove the old ones first.");
@@ -1274,50 +1777,135 @@ public class BagService extends StatusProvider {
         myLogger.debug(msg);
         reportStatus(Status.State.WORKING, msg);
         bag.setHasPath(!gpsPositions.isEmpty());
-        for (GpsPosition gpsPos : gpsPositions) {
-            BagPosition pos = new BagPosition();
-            pos.setBag(bag);
-            pos.setPosition(makePoint(gpsPos.latitude, gpsPos.longitude));
-            pos.setPositionTime(gpsPos.stamp);
-            pos = myBagPositionRepository.save(pos);
-            bag.getBagPositions().add(pos);
-        }
-        msg = "Saved " + gpsPositions.size() + " GPS positions for " +
-                bag.getFilename() + ".";
+        List<GpsPosition> simplifiedPositions = simplifyGpsPath(gpsPositions);
+        // Positions are written straight to the database rather than being
+        // added to the bag, since there can be hundreds of thousands of them.
+        myBulkWriter.insertGpsPositions(bag.getId(), simplifiedPositions);
+        msg = "Saved " + simplifiedPositions.size() + " of " + gpsPositions.size() +
+                " GPS positions for " + bag.getFilename() + ".";
         myLogger.debug(msg);
         reportStatus(Status.State.WORKING, msg);
     }
 
+    /**
+     * Checks whether the files for all of the bags in the database still
+     * exist and updates their "missing" flags.
+     * @param existingBagPaths Will be populated with the paths of bags that exist.
+     * @param missingBagMd5sums Will be populated with the MD5 sums of bags that
+     *                          are missing.
+     */
     @Transactional
     public void scanDatabaseBags(Map<String, Long> existingBagPaths,
                                   Map<String, Long> missingBagMd5sums) {
-        List<Bag> bags = bagRepository.findAll();
-
         // First, scan over all of the existing entries in the DB and see if
         // any of them are missing from the filesystem.
         myLogger.debug("Scanning bags already in the database.");
-        for (Bag bag : bags) {
+        List<Long> foundBagIds = Lists.newArrayList();
+        List<Long> lostBagIds = Lists.newArrayList();
+        try (Stream<BagPathInfo> bags = bagRepository.streamAllPathInfo()) {
+            Iterators.partition(bags.iterator(), DATABASE_SCAN_CHUNK_SIZE).forEachRemaining(
+                    chunk -> checkDatabaseBags(chunk, existingBagPaths, missingBagMd5sums,
+                                               foundBagIds, lostBagIds));
+        }
+        // The flags are updated after the stream is closed so that we're not
+        // writing to the database while still reading from it.
+        setMissingFlags(foundBagIds, lostBagIds);
+    }
+
+    /**
+     * Like {@link #scanDatabaseBags(Map, Map)}, but only checks bags that are
+     * located at or underneath the given paths.  This is used for incremental
+     * scans when we know exactly which parts of the file system have changed.
+     * @param changedPaths Absolute paths to files or directories that changed.
+     * @param existingBagPaths Will be populated with the paths of bags that exist.
+     * @param missingBagMd5sums Will be populated with the MD5 sums of bags that
+     *                          are missing.
+     */
+    @Transactional
+    public void scanDatabaseBags(Collection<java.nio.file.Path> changedPaths,
+                                 Map<String, Long> existingBagPaths,
+                                 Map<String, Long> missingBagMd5sums) {
+        myLogger.debug("Scanning database bags under " + changedPaths.size() + " changed paths.");
+        Map<Long, BagPathInfo> bags = new LinkedHashMap<>();
+        for (java.nio.file.Path changedPath : changedPaths) {
+            // Deleted paths can't be inspected anymore, so we don't know whether
+            // they were files or directories; check for both.
+            java.nio.file.Path parent = changedPath.getParent();
+            if (parent != null && changedPath.getFileName() != null) {
+                for (BagPathInfo bag : bagRepository.findPathInfoByPathAndFilename(
+                        parent.toString() + File.separator, changedPath.getFileName().toString())) {
+                    bags.putIfAbsent(bag.getId(), bag);
+                }
+            }
+            if (!Files.isRegularFile(changedPath)) {
+                for (BagPathInfo bag : bagRepository.findPathInfoByPathStartsWith(
+                        changedPath.toString() + File.separator)) {
+                    bags.putIfAbsent(bag.getId(), bag);
+                }
+            }
+        }
+
+        List<Long> foundBagIds = Lists.newArrayList();
+        List<Long> lostBagIds = Lists.newArrayList();
+        checkDatabaseBags(Lists.newArrayList(bags.values()), existingBagPaths, missingBagMd5sums,
+                          foundBagIds, lostBagIds);
+        setMissingFlags(foundBagIds, lostBagIds);
+    }
+
+    /**
+     * Checks whether the files for a group of bags exist.  Checking a file
+     * can be slow on network file systems, so the files are checked in parallel.
+     * @param bags The bags to check.
+     * @param existingBagPaths Will be populated with the paths of bags that exist.
+     * @param missingBagMd5sums Will be populated with the MD5 sums of bags that
+     *                          are missing.
+     * @param foundBagIds Will be populated with the IDs of bags that were
+     *                    marked as missing but exist.
+     * @param lostBagIds Will be populated with the IDs of bags that weren't
+     *                   marked as missing but don't exist.
+     */
+    private void checkDatabaseBags(List<BagPathInfo> bags,
+                                   Map<String, Long> existingBagPaths,
+                                   Map<String, Long> missingBagMd5sums,
+                                   List<Long> foundBagIds,
+                                   List<Long> lostBagIds) {
+        List<Boolean> exists = bags.parallelStream()
+                .map(bag -> new File(bag.getPath() + bag.getFilename()).exists())
+                .collect(Collectors.toList());
+
+        for (int i = 0; i < bags.size(); i++) {
+            BagPathInfo bag = bags.get(i);
             String fullPath = bag.getPath() + bag.getFilename();
-            myLogger.trace("Checking whether " + fullPath + "...");
-            File testFile = new File(fullPath);
-            if (testFile.exists()) {
+            boolean isMissing = Boolean.TRUE.equals(bag.getMissing());
+            if (exists.get(i)) {
                 existingBagPaths.put(fullPath, bag.getId());
-                if (bag.getMissing()) {
-                    bag.setMissing(false);
-                    bagRepository.save(bag);
+                if (isMissing) {
+                    foundBagIds.add(bag.getId());
                 }
             }
             else {
                 myLogger.warn("Bag exists in database but is missing: " + fullPath);
                 missingBagMd5sums.put(bag.getMd5sum(), bag.getId());
-                if (!bag.getMissing()) {
-                    bag.setMissing(true);
-                    bagRepository.save(bag);
+                if (!isMissing) {
+                    lostBagIds.add(bag.getId());
                 }
             }
         }
     }
 
+    private void setMissingFlags(List<Long> foundBagIds, List<Long> lostBagIds) {
+        for (List<Long> bagIds : Lists.partition(foundBagIds, DATABASE_SCAN_CHUNK_SIZE)) {
+            bagRepository.setMissing(bagIds, false);
+        }
+        for (List<Long> bagIds : Lists.partition(lostBagIds, DATABASE_SCAN_CHUNK_SIZE)) {
+            bagRepository.setMissing(bagIds, true);
+        }
+        if (!foundBagIds.isEmpty() || !lostBagIds.isEmpty()) {
+            myEventPublisher.publishEvent(new BagsChangedEvent(Lists.newArrayList(
+                    Iterables.concat(foundBagIds, lostBagIds))));
+        }
+    }
+
     @Transactional
     public void removeTagForBag(Collection<String> tagNames,
                                 final Long bagId) throws NonexistentBagException {
@@ -1326,6 +1914,7 @@ public class BagService extends StatusProvider {
         }
 
         myTagRepository.deleteByBagIdAndTagIn(bagId, tagNames);
+        myEventPublisher.publishEvent(new BagsChangedEvent(bagId));
     }
 
     @Transactional
@@ -1349,19 +1938,20 @@ public class BagService extends StatusProvider {
         tag.setValue(value == null ? "" : value.trim());
         myLogger.debug("Setting value of tag with key '" + tagName + "' to '" + tag.getValue() + "'");
         myTagRepository.save(tag);
+        myEventPublisher.publishEvent(new BagsChangedEvent(bagId));
     }
 
     @Transactional
     public Bag insertNewBag(final BagFile bagFile,
                             final String md5sum,
-                            final String locationName,
-                            final List<GpsPosition> gpsPositions) throws BagReaderException, DuplicateBagException {
+                            final BagMetadataExtractor metadata,
+                            final String locationName) throws BagReaderException, DuplicateBagException {
         Bag bag = bagRepository.findByMd5sum(md5sum);
 
         // We checked earlier if there were any other bags with this MD5 sum,
-        // but that was before we entered the synchronized area, so we need
-        // to check again just in case somebody managed to insert one before we
-        // got the lock.
+        // but that was a while ago, so check again.  Another thread could still
+        // insert one after this; the unique constraint on the MD5 sum will
+        // catch that when we save.
         if (bag != null) {
             throw new DuplicateBagException("Duplicate of: " + bag.getPath() + bag.getFilename());
         }
@@ -1386,84 +1976,104 @@ public class BagService extends StatusProvider {
         bag.setMissing(false);
         bag.setSize(file.length());
         bag.setVersion(bagFile.getVersion());
-        bag.setVehicle(getVehicleName(bagFile));
+        bag.setVehicle(metadata.getVehicleName());
+        List<GpsPosition> gpsPositions = metadata.getGpsPositions();
         if (!gpsPositions.isEmpty()) {
             GpsPosition pos = gpsPositions.get(0);
             bag.setCoordinate(makePoint(pos.latitude, pos.longitude));
         }
+        // Nothing saves the bag again after its GPS positions are inserted,
+        // so this has to be set before the first save.
+        bag.setHasPath(!gpsPositions.isEmpty());
         bag.setLocation(locationName);
-        bag = bagRepository.save(bag);
+        try {
+            bag = bagRepository.save(bag);
+        }
+        catch (DataIntegrityViolationException e) {
+            if (isDuplicateMd5sumViolation(e)) {
+                throw new DuplicateBagException("Another bag with MD5 sum " + md5sum + " was just inserted.");
+            }
+            throw e;
+        }
         myLogger.trace("Initial bag save for " + file.getAbsolutePath());
 
-        Map<String, MessageType> dbMessageTypes = addMessageTypesToBag(bagFile, bag);
-
-        addTopicsToBag(bagFile, bag, dbMessageTypes);
-        addTagsToBag(bagFile, bag);
+        // The bag was just inserted, so none of its message types, topics or
+        // tags can be linked to it yet; they can all be inserted at once
+        // without checking for them.  They aren't added to the bag's
+        // collections, so nothing else needs to save the bag again.
+        Map<String, MessageType> dbMessageTypes = insertMessageTypesForNewBag(bagFile, bag);
+        insertTopicsForNewBag(bagFile, bag, dbMessageTypes);
+        insertTagsForNewBag(metadata.getMetadata(), bag);
 
         updateGpsPositions(bag, gpsPositions);
 
         return bag;
     }
 
-    @Transactional
-    private Map<String, MessageType> addMessageTypesToBag(final BagFile bagFile, final Bag bag) {
+    private Map<String, MessageType> insertMessageTypesForNewBag(final BagFile bagFile, final Bag bag) {
         myLogger.trace("Adding message types.");
         Multimap<String, String> messageTypes = bagFile.getMessageTypes();
         Map<String, MessageType> dbMessageTypes = new HashMap<>();
+        Map<MessageTypeKey, MessageType> bagMessageTypes = new LinkedHashMap<>();
         for (Map.Entry<String, String> entry : messageTypes.entries()) {
-            MessageType mt = getMessageType(entry.getKey(), entry.getValue(), bag);
+            MessageTypeKey key = makeMessageTypeKey(entry.getKey(), entry.getValue());
+            MessageType mt = ensureMessageTypeExists(key);
             dbMessageTypes.put(entry.getKey(), mt);
+            bagMessageTypes.put(key, mt);
         }
 
+        myBulkWriter.insertMessageTypes(bag.getId(), bagMessageTypes.values());
         return dbMessageTypes;
     }
 
-    @Transactional
-    private void addTopicsToBag(final BagFile bagFile,
-                                final Bag bag,
-                                final Map<String, MessageType> dbMessageTypes) throws BagReaderException {
+    private void insertTopicsForNewBag(final BagFile bagFile,
+                                       final Bag bag,
+                                       final Map<String, MessageType> dbMessageTypes) throws BagReaderException {
         myLogger.trace("Adding topics.");
-        List<TopicInfo> topics = bagFile.getTopics();
-        for (TopicInfo topic : topics) {
+        Map<String, Topic> dbTopics = new LinkedHashMap<>();
+        for (TopicInfo topic : bagFile.getTopics()) {
             MessageType dbType = dbMessageTypes.get(topic.getMessageType());
             if (dbType == null) {
-                myLogger.trace("Need to add new message type. That's a little odd, " +
-                               "addMessageTypesToBag should've gotten them all.");
-                dbType = getMessageType(
-                        topic.getMessageType(),
-                        topic.getMessageMd5Sum(),
-                        bag);
+                myLogger.warn("Topic " + topic.getName() + " uses message type " +
+                              topic.getMessageType() + ", which isn't in the bag's list of types.");
+                dbType = ensureMessageTypeExists(
+                        makeMessageTypeKey(topic.getMessageType(), topic.getMessageMd5Sum()));
                 dbMessageTypes.put(topic.getMessageType(), dbType);
-            }
-            else {
-                myLogger.trace("Found cached message type.");
+                myBulkWriter.insertMessageTypes(bag.getId(), Collections.singleton(dbType));
             }
 
-            myLogger.trace("Finding existing topics.");
-            List<Topic> bagTopics = myTopicRepository.findByTopicNameAndBagId(topic.getName(), bag.getId());
-            //myLogger.info("Found " + bagTopics + " existing topics.");
-            Topic dbTopic;
-            if (!bagTopics.isEmpty()) {
-                dbTopic = bagTopics.get(0);
-            }
-            else {
-                //myLogger.info("Creating new topic.");
-                dbTopic = new Topic();
-            }
+            Topic dbTopic = new Topic();
             dbTopic.setTopicName(topic.getName());
             dbTopic.setType(dbType);
             dbTopic.setMessageCount(topic.getMessageCount());
             dbTopic.setConnectionCount(topic.getConnectionCount());
             dbTopic.setBag(bag);
-            bag.getTopics().add(dbTopic);
+            dbTopics.put(topic.getName(), dbTopic);
+        }
+
+        myBulkWriter.insertTopics(bag.getId(), dbTopics.values());
+    }
+
+    private void insertTagsForNewBag(final Map<String, String> metadata,
+                                     final Bag bag) {
+        Set<Tag> bagTags = extractTags(metadata);
+        for (Tag bagTag : bagTags) {
+            bagTag.setBag(bag);
         }
+
+        myBulkWriter.insertTags(bag.getId(), bagTags);
     }
 
     @Transactional
     public void addTagsToBag(final BagFile bagFile,
                              final Bag bag) {
         myLogger.trace("Adding tags to " + bagFile.getPath());
-        Set<Tag> bagTags = extractTagsFromBagFile(bagFile);
+        addTagsToBag(getMetadata(bagFile), bag);
+    }
+
+    private void addTagsToBag(final Map<String, String> metadata,
+                              final Bag bag) {
+        Set<Tag> bagTags = extractTags(metadata);
 
         // Note that this method doesn't *synchronize* tags between the bag file and
         // the database, it only adds ones that exist in the bag file to the database.
@@ -1471,6 +2081,7 @@ public class BagService extends StatusProvider {
         // been modified from values that exist in the bag file will be overwritten.
         // TODO Is that desirable, or should user-entered tags take precedence?
 
+        boolean changed = false;
         for (Tag bagTag : bagTags) {
             boolean found = false;
             for (Tag dbTag : bag.getTags()) {
@@ -1482,6 +2093,7 @@ public class BagService extends StatusProvider {
                                        "'; New tag value: '" + dbTag.getValue() + "')");
                         dbTag.setValue(bagTag.getValue());
                         myTagRepository.save(dbTag);
+                        changed = true;
                         break;
                     }
                 }
@@ -1491,133 +2103,302 @@ public class BagService extends StatusProvider {
                 bagTag.setBag(bag);
                 bag.getTags().add(bagTag);
                 myTagRepository.save(bagTag);
+                changed = true;
             }
         }
+
+        if (changed) {
+            myEventPublisher.publishEvent(new BagsChangedEvent(bag.getId()));
+        }
     }
 
+    /**
+     * Checks a single bag file against the database and inserts or updates it
+     * if necessary.  This runs every stage of {@link BagIngestPipeline} on the
+     * calling thread.
+     */
     public void updateBagFile(final File file,
                               final Map<String, Long> existingBagPaths,
                               final Map<String, Long> missingBagMd5sums,
                               boolean forceUpdate) {
+        BagIngestTask task = new BagIngestTask(file, existingBagPaths, missingBagMd5sums, forceUpdate);
+        if (fingerprintBag(task) && extractBagMetadata(task)) {
+            geocodeBag(task);
+            persistBag(task);
+        }
+    }
+
+    /**
+     * The first ingest stage: opens the bag file, determines its MD5 sum, and
+     * figures out whether it's new, a missing bag that has reappeared, or a
+     * duplicate of one we already have.
+     * @param task The bag being ingested.
+     * @return true if the bag needs to go through the rest of the stages.
+     */
+    boolean fingerprintBag(final BagIngestTask task) {
+        final File file = task.file;
         myLogger.debug("Checking " + file.getPath() + "...");
         reportStatus(Status.State.WORKING, "Processing " + file.getPath() + ".");
 
-        Long bagId = existingBagPaths.get(file.getPath());
+        Long bagId = task.existingBagPaths.get(file.getPath());
         // If it already exists in the database, don't do anything unless this
         // is a force update.
         if (bagId != null) {
-            if (forceUpdate) {
+            if (task.forceUpdate) {
                 myLogger.debug("Bag already exists in database; update forced.");
             }
             else {
                 myLogger.trace("Bag exists in database; skipping.");
-                return;
+                return false;
             }
         }
 
         if (!file.canRead()) {
             myLogger.error("Can't read file.");
             reportStatus(Status.State.ERROR, "Unable to read " + file.getPath() + ".  Check its permissions.");
-            return;
+            return false;
         }
 
-        String md5sum;
-        Timer timer = new Timer();
+        // The same BagFile is used for hashing and for reading everything else
+        // out of the bag so that its index only has to be read once.
+        BagFile bagFile;
         try {
-            // First, get the MD5 sum so we can see if this bag exists but
-            // has been moved.
-            BagFile bagFile = new BagFile(file.getPath());
-            //InputStream inputStream = new BufferedInputStream(new FileInputStream(file));
-
-            TimerTask updateTask = new TimerTask() {
-                @Override
-                public void run() {
-                    reportStatus(Status.State.WORKING,
-                                 "Calculating MD5 Sum for " + file.getName() + "...");
-                }
-            };
-            // Periodically notify the front end if we're still calculating MD5 sums.
-            // Otherwise, if we're analyzing multiple bags in parallel, an error could
-            // occur that might make the user think we're not working on anything else.
-            timer.scheduleAtFixedRate(updateTask, 0, 3000);
-
-            md5sum = bagFile.getUniqueIdentifier();
-            myLogger.debug("Calculated bag md5sum: " + md5sum);
+            bagFile = BagReader.readFile(file);
         }
         catch (BagReaderException e) {
-            myLogger.error("Unable to calculate MD5 sum for bag " + file.getPath(), e);
-            return;
+            reportStatus(Status.State.ERROR, "Unable to read " + file.getPath() + ": " + e.getLocalizedMessage());
+            myLogger.error("Error reading bag file:", e);
+            return false;
         }
-        finally {
-            timer.cancel();
+
+        // If we've seen this exact file before, we can reuse the MD5 sum we
+        // calculated for it last time rather than reading the whole thing again.
+        // Force updates always recalculate it.
+        BagFingerprint fingerprint = readFingerprint(file);
+        String md5sum = task.forceUpdate ? null : getFingerprintMd5sum(fingerprint);
+        if (md5sum != null) {
+            myLogger.debug("Found bag md5sum in fingerprint journal: " + md5sum);
+        }
+        else {
+            md5sum = calculateMd5sum(bagFile);
+            if (md5sum == null) {
+                return false;
+            }
+            recordFingerprint(fingerprint, md5sum);
         }
 
         // If bag is null at this point, that means that there is not an existing
         // bag in the database with that path.  There might be a bag that was
         // previously marked as "missing" with that MD5 sum, so check for it.
         if (bagId == null) {
-            bagId = missingBagMd5sums.get(md5sum);
+            bagId = task.missingBagMd5sums.get(md5sum);
         }
 
         // If it's still null, check whether there's an existing bag in the database
         // with that MD5 sum so we can avoid doing any more work.
         if (bagId == null) {
             Bag existingBag = bagRepository.findByMd5sum(md5sum);
-            if (existingBag != null) {
+            if (existingBag != null && existingBag.getMissing()) {
+                // Incremental scans only know about bags that went missing under
+                // the paths that changed; this one went missing earlier.
+                myLogger.debug("Bag matches a previously missing bag: " + existingBag.getId());
+                task.missingBagMd5sums.put(md5sum, existingBag.getId());
+                bagId = existingBag.getId();
+            }
+            else if (existingBag != null) {
                 String msg = "File " + file.getAbsolutePath() + " is a duplicate of " +
                              existingBag.getPath() + existingBag.getFilename() + ".";
                 reportStatus(Status.State.ERROR, msg);
                 myLogger.warn(msg);
-                return;
+                return false;
             }
         }
 
-        // Getting the list of GPS positions is a bit expensive, and getting the location
-        // name can block while waiting for a network response, so let's do those
-        // before locking on the mutex.
-        BagFile bagFile;
-        String locationName = null;
-        List<GpsPosition> gpsPositions;
-        try {
-            bagFile = BagReader.readFile(file);
+        task.bagId = bagId;
+        task.bagFile = bagFile;
+        task.md5sum = md5sum;
+        return true;
+    }
 
-            gpsPositions = getAllGpsMessages(bagFile);
-            if (!gpsPositions.isEmpty()) {
-                GpsPosition firstPos = gpsPositions.get(0);
-                locationName = myGeocodingService.getLocationName(firstPos.latitude, firstPos.longitude);
-            }
+    /**
+     * The second ingest stage: reads GPS positions, the vehicle name, and
+     * metadata out of the bag.  Bags that are already in the database only
+     * have their tags updated, so only their metadata is read.
+     * @param task The bag being ingested.
+     * @return true if the bag needs to go through the rest of the stages.
+     */
+    boolean extractBagMetadata(final BagIngestTask task) {
+        Configuration config = myConfigService.getConfiguration();
+        try {
+            BagMetadataExtractor extractor = task.bagId == null ?
+                    new BagMetadataExtractor(config) :
+                    new BagMetadataExtractor(config, EnumSet.of(BagMetadataExtractor.Field.METADATA));
+            task.metadata = extractor.extract(task.bagFile);
+            return true;
         }
         catch (BagReaderException e) {
             myLogger.error("Error reading GPS messages from bag file:", e);
+            return false;
+        }
+    }
+
+    /**
+     * The third ingest stage: looks up the name of the bag's location if it
+     * has already been cached or a local gazetteer is configured.  If not,
+     * the location will be looked up in the background after the bag has
+     * been inserted.
+     * @param task The bag being ingested.
+     */
+    void geocodeBag(final BagIngestTask task) {
+        if (task.bagId != null) {
+            // Existing bags keep the location they already have.
             return;
         }
+        List<GpsPosition> gpsPositions = task.metadata.getGpsPositions();
+        if (!gpsPositions.isEmpty()) {
+            GpsPosition firstPos = gpsPositions.get(0);
+            task.locationName = myGeocodingService.getLocationNameWithoutWaiting(firstPos.latitude, firstPos.longitude);
+        }
+    }
+
+    /**
+     * The last ingest stage: writes the bag to the database and runs any
+     * scripts that should be run on new bags.
+     * @param task The bag being ingested.
+     */
+    void persistBag(final BagIngestTask task) {
+        final File file = task.file;
+        BagFile bagFile = task.bagFile;
+
+        // Different bags could all try to insert the same types of messages at
+        // the same time, so make sure they exist before inserting the bag.
+        // Everything else a bag inserts belongs only to that bag, so once this
+        // is done, bags can be written to the database in parallel.
+        ensureMessageTypesExist(bagFile);
 
-        // We can do the work up to this point in parallel -- mostly calculating
-        // md5sums -- but we need to synchronize around DB transactions, since
-        // different bags could all try to insert the same types of messages at
-        // the same time.
         Bag newBag = null;
-        synchronized (myBagDbLock) {
-            try {
-                newBag = updateBagInDatabase(bagId, bagFile, md5sum, missingBagMd5sums, locationName, gpsPositions);
-                String msg = "Done processing: " + bagFile.getPath().toFile().toString();
-                myLogger.debug(msg);
-                reportStatus(Status.State.IDLE, msg);
-            }
-            catch (BagReaderException | DuplicateBagException e) {
-                reportStatus(Status.State.ERROR, "Error reading " +
-                             file.getAbsolutePath() + ": " + e.getLocalizedMessage());
-                myLogger.error("Error reading bag file: " + file.getAbsolutePath(), e);
-            }
+        try {
+            // The bag and all of its rows are written in one transaction, so
+            // a failure can't leave a half-inserted bag behind.
+            newBag = myTransactionalSelf.updateBagInDatabase(task.bagId, bagFile, task.md5sum,
+                                                             task.missingBagMd5sums, task.metadata,
+                                                             task.locationName);
+            myEventPublisher.publishEvent(new BagsChangedEvent(newBag.getId()));
+            String msg = "Done processing: " + bagFile.getPath().toFile().toString();
+            myLogger.debug(msg);
+            reportStatus(Status.State.IDLE, msg);
+        }
+        catch (BagReaderException | DuplicateBagException e) {
+            reportStatus(Status.State.ERROR, "Error reading " +
+                         file.getAbsolutePath() + ": " + e.getLocalizedMessage());
+            myLogger.error("Error reading bag file: " + file.getAbsolutePath(), e);
         }
 
         // If bagId is null but we have a newBag at this point, that means we just inserted
         // a new bag file.  Check to see if we need to run any scripts on it.
-        if (bagId == null && newBag != null) {
+        if (task.bagId == null && newBag != null) {
+            List<GpsPosition> gpsPositions = task.metadata.getGpsPositions();
+            if (task.locationName == null && !gpsPositions.isEmpty()) {
+                GpsPosition firstPos = gpsPositions.get(0);
+                myGeocodingService.requestLocationName(newBag.getId(), firstPos.latitude, firstPos.longitude);
+            }
             runAutomaticScripts(newBag);
         }
     }
 
+    /**
+     * Reads the entire contents of a bag file to calculate its MD5 sum.
+     * @param bagFile The bag file to read.
+     * @return The bag's MD5 sum, or null if there was an error reading it.
+     */
+    private String calculateMd5sum(final BagFile bagFile) {
+        final File file = bagFile.getPath().toFile();
+        Timer timer = new Timer();
+        try {
+            TimerTask updateTask = new TimerTask() {
+                @Override
+                public void run() {
+                    reportStatus(Status.State.WORKING,
+                                 "Calculating MD5 Sum for " + file.getName() + "...");
+                }
+            };
+            // Periodically notify the front end if we're still calculating MD5 sums.
+            // Otherwise, if we're analyzing multiple bags in parallel, an error could
+            // occur that might make the user think we're not working on anything else.
+            timer.scheduleAtFixedRate(updateTask, 0, 3000);
+
+            String md5sum = bagFile.getUniqueIdentifier();
+            myLogger.debug("Calculated bag md5sum: " + md5sum);
+            return md5sum;
+        }
+        catch (BagReaderException e) {
+            myLogger.error("Unable to calculate MD5 sum for bag " + file.getPath(), e);
+            return null;
+        }
+        finally {
+            timer.cancel();
+        }
+    }
+
+    /**
+     * Reads a file's device, inode, size, and modification time from the filesystem.
+     * @param file The file to examine.
+     * @return A fingerprint for the file with no MD5 sum set, or null if the
+     *         filesystem does not provide device and inode numbers.
+     */
+    private BagFingerprint readFingerprint(final File file) {
+        try {
+            Map<String, Object> attrs = Files.readAttributes(
+                    file.toPath(), "unix:dev,ino,size,lastModifiedTime");
+            BagFingerprint fingerprint = new BagFingerprint();
+            fingerprint.setDevice(((Number) attrs.get("dev")).longValue());
+            fingerprint.setInode(((Number) attrs.get("ino")).longValue());
+            fingerprint.setSize(((Number) attrs.get("size")).longValue());
+            fingerprint.setModifiedTime(((FileTime) attrs.get("lastModifiedTime")).toMillis());
+            return fingerprint;
+        }
+        catch (UnsupportedOperationException | IllegalArgumentException e) {
+            myLogger.trace("Filesystem does not support unix attributes; not using fingerprints.");
+        }
+        catch (IOException e) {
+            myLogger.warn("Unable to read attributes for " + file.getPath() + ": " + e.getLocalizedMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Looks up a file in the fingerprint journal.
+     * @param fingerprint The file's current fingerprint; may be null.
+     * @return The MD5 sum previously calculated for that file, or null if the file
+     *         has not been seen before or may have changed since then.
+     */
+    private String getFingerprintMd5sum(final BagFingerprint fingerprint) {
+        if (fingerprint == null) {
+            return null;
+        }
+        BagFingerprint stored = myFingerprintRepository.findById(
+                new BagFingerprintKey(fingerprint.getDevice(), fingerprint.getInode())).orElse(null);
+        if (stored != null && stored.matches(fingerprint)) {
+            return stored.getMd5sum();
+        }
+        return null;
+    }
+
+    private void recordFingerprint(final BagFingerprint fingerprint, final String md5sum) {
+        if (fingerprint == null) {
+            return;
+        }
+        fingerprint.setMd5sum(md5sum);
+        try {
+            myFingerprintRepository.save(fingerprint);
+        }
+        catch (DataIntegrityViolationException e) {
+            // Another thread recorded the same file (probably a hard link)
+            // at the same time; either entry is fine.
+            myLogger.debug("Fingerprint was already recorded: " + e.getLocalizedMessage());
+        }
+    }
+
     private void runAutomaticScripts(Bag bag) {
         List<Script> scripts = myScriptService.getAutomaticScripts();
 
@@ -1652,24 +2433,26 @@ public class BagService extends StatusProvider {
      * @param bagFile The bag to insert.
      * @param md5sum Our calculated MD5 sum of the bag's contents.
      * @param missingBagMd5sums All of the MD5 sums of any bags that have been marked as missing.
+     * @param metadata GPS coordinates, vehicle name, and tags extracted from the bag.
      * @param locationName The friendly name of the bag's location, if available.
-     * @param gpsPositions GPS coordinates extracted from the bag.
-     * @return The bag that was just inserted.
+     * @return The bag that was just inserted or updated.  For new bags, its
+     * message types, topics and tags were written directly to the database
+     * and are not in its collections.
      * @throws DuplicateBagException If this bag already exists in the database
      * @throws BagReaderException If there is an error reading the bag file
      */
-    @Transactional
+    @Transactional(rollbackFor = {DuplicateBagException.class, BagReaderException.class})
     public Bag updateBagInDatabase(Long bagId,
                                    final BagFile bagFile,
                                    final String md5sum,
                                    final Map<String, Long> missingBagMd5sums,
-                                   final String locationName,
-                                   final List<GpsPosition> gpsPositions)
+                                   final BagMetadataExtractor metadata,
+                                   final String locationName)
             throws DuplicateBagException, BagReaderException {
         Bag bag;
         File file = bagFile.getPath().toFile();
         if (bagId == null) {
-            bag = insertNewBag(bagFile, md5sum, locationName, gpsPositions);
+            bag = insertNewBag(bagFile, md5sum, metadata, locationName);
         }
         else {
             if (missingBagMd5sums.remove(md5sum) != null) {
@@ -1686,9 +2469,9 @@ public class BagService extends StatusProvider {
             bag.setFilename(file.getName());
             bag.setMissing(false);
             bag.setMd5sum(md5sum);
-            addTagsToBag(bagFile, bag);
+            addTagsToBag(metadata.getMetadata(), bag);
+            bagRepository.save(bag);
         }
-        bagRepository.save(bag);
         String msg = "Committing: " + file.getAbsolutePath();
         myLogger.debug(msg);
         reportStatus(Status.State.WORKING, msg);
@@ -1705,10 +2488,19 @@ public class BagService extends StatusProvider {
                                       " was missing and we couldn't find it.");
                 bag.setMissing(true);
                 bagRepository.save(bag);
+                myEventPublisher.publishEvent(new BagsChangedEvent(bagId));
             }
         }
     }
 
+    /**
+     * Lists the subdirectories and bags inside a directory for the bag tree.
+     * Directory contents, bag counts, and bags are all read from in-memory
+     * caches when possible; see {@link BagTreeCache} and {@link BagPathCounter}.
+     * @param targetPath The directory to list, or "root" for the bag directory.
+     * @return A node for every subdirectory and bag in the directory.
+     * @throws IOException If the directory wasn't cached and couldn't be read.
+     */
     @Transactional(readOnly = true)
     public List<BagTreeNode> getTreePath(String targetPath) throws IOException {
         List<BagTreeNode> nodes = Lists.newArrayList();
@@ -1716,11 +2508,9 @@ public class BagService extends StatusProvider {
         if (targetPath.equals("root")) {
             targetPath = basePath;
         }
-        String bagDir = targetPath;
 
-
-        java.nio.file.Path path = FileSystems.getDefault().getPath(bagDir);
-        String parentId = path.toFile().getCanonicalPath() + "/";
+        java.nio.file.Path path = Paths.get(targetPath).toAbsolutePath().normalize();
+        String parentId = path.toString().endsWith("/") ? path.toString() : path.toString() + "/";
 
         if (!parentId.startsWith(basePath)) {
             // Don't allow somebody to list paths outside of the bag path.
@@ -1728,36 +2518,19 @@ public class BagService extends StatusProvider {
         }
 
         // First, add any child directories to the node list.
-        try (DirectoryStream<java.nio.file.Path> dirStream = Files.newDirectoryStream(path)) {
-            for (java.nio.file.Path child : dirStream) {
-                File childFile = child.toFile();
-                if (!childFile.isDirectory()) {
-                    continue;
-                }
-                String filename = childFile.getName();
-                Pattern p = Pattern.compile("@.*");
-                Matcher m = p.matcher(filename);
-                if(m.find()){
-                    continue;
-                }
-                BagTreeNode childNode = new BagTreeNode();
-                childNode.filename = filename;
-                childNode.parentId = parentId;
-                childNode.leaf = false;
-                childNode.id = parentId + filename;
-                java.nio.file.Path subdirPath = FileSystems.getDefault().getPath(childNode.id);
-                try (DirectoryStream<java.nio.file.Path> subdirStream = Files.newDirectoryStream(subdirPath)) {
-                    Iterator<java.nio.file.Path> iter = subdirStream.iterator();
-                    childNode.expanded = !iter.hasNext();
-                }
-                childNode.bagCount = bagRepository.countByPathStartsWith(childNode.id);
-                nodes.add(childNode);
-            }
+        for (String filename : myTreeCache.getDirectory(parentId).getSubdirectories()) {
+            BagTreeNode childNode = new BagTreeNode();
+            childNode.filename = filename;
+            childNode.parentId = parentId;
+            childNode.leaf = false;
+            childNode.id = parentId + filename;
+            childNode.expanded = myTreeCache.getDirectory(childNode.id + "/").isEmpty();
+            childNode.bagCount = myPathCounter.countBags(childNode.id + "/");
+            nodes.add(childNode);
         }
 
         // Next, get all the bags in that directory and add them.
-        List<Bag> bags = bagRepository.findByPath(parentId);
-        for (Bag bag : bags) {
+        for (Bag bag : myTreeCache.getBags(parentId, this::findDirectoryBags)) {
             BagTreeNode childNode = new BagTreeNode();
             childNode.filename = bag.getFilename();
             childNode.parentId = parentId;
@@ -1780,10 +2553,7 @@ public class BagService extends StatusProvider {
      */
     @Transactional(readOnly = true)
     public BagCount[] checkFilteredBagCounts(String filterText) {
-        TypedQuery<BagCount> query = myEM.createNamedQuery("Bag.countBagPaths", BagCount.class);
-        query.setParameter("text", filterText);
-        List<BagCount> results = query.getResultList();
-        return results.toArray(new BagCount[0]);
+        return myPathCounter.countMatchingBags(filterText).toArray(new BagCount[0]);
     }
 
     @Transactional
@@ -1793,32 +2563,106 @@ public class BagService extends StatusProvider {
         // Using bagRepository.delete here doesn't work.  It just executes another
         // select statement.  No idea why.  Spring Data JPA repositories are so
         // annoying sometimes.
+        List<Long> missingBagIds = bagRepository.findMissingIds();
         Query query = myEM.createQuery("delete from Bag b where b.missing = true");
         int numberRemoved = query.executeUpdate();
+        myEventPublisher.publishEvent(new BagsChangedEvent(missingBagIds));
         String msg = "Removed " + numberRemoved + " missing bags.";
         myLogger.debug(msg);
+        int fingerprintsRemoved = myFingerprintRepository.deleteOrphanedFingerprints();
+        myLogger.debug("Removed " + fingerprintsRemoved + " stale file fingerprints.");
         reportStatus(Status.State.IDLE, msg);
     }
 
-    private MessageType getMessageType(final String name,
-                                       final String md5sum,
-                                       final Bag bag) {
+    /**
+     * Inserts any message types used by a bag file that aren't in the database
+     * yet.  Each one is saved in its own transaction so that it's visible to
+     * every other thread by the time this returns.
+     * @param bagFile The bag file to check.
+     */
+    private void ensureMessageTypesExist(final BagFile bagFile) {
+        for (Map.Entry<String, String> entry : bagFile.getMessageTypes().entries()) {
+            ensureMessageTypeExists(makeMessageTypeKey(entry.getKey(), entry.getValue()));
+        }
+    }
+
+    /**
+     * Inserts a message type if it isn't in the database yet.  When this is
+     * called outside of a transaction, the message type is saved in its own
+     * transaction so that it's visible to every other thread by the time this
+     * returns; that's why the ingest pipeline calls it before inserting a bag.
+     * @param key The message type to check.
+     * @return The message type from the database.
+     */
+    private MessageType ensureMessageTypeExists(final MessageTypeKey key) {
+        MessageType dbType = myMessageTypeCache.getIfPresent(key);
+        if (dbType != null) {
+            return dbType;
+        }
+
+        Lock lock = myMessageTypeLocks.get(key);
+        lock.lock();
+        try {
+            dbType = getCachedMessageType(key);
+            if (dbType != null) {
+                return dbType;
+            }
+            dbType = new MessageType();
+            dbType.setName(key.name);
+            dbType.setMd5sum(key.md5sum);
+            try {
+                dbType = myMTRepository.saveAndFlush(dbType);
+                myMessageTypeCache.put(key, dbType);
+                myLogger.info("Adding new MessageType to DB: " + key.name + " / " + key.md5sum);
+                return dbType;
+            }
+            catch (DataIntegrityViolationException e) {
+                // Another bag database sharing this DB beat us to it.
+                myLogger.debug("MessageType was already inserted: " + key.name + " / " + key.md5sum);
+                return getCachedMessageType(key);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return True if the exception was caused by inserting a bag whose MD5
+     * sum is already in the database.
+     */
+    static boolean isDuplicateMd5sumViolation(DataIntegrityViolationException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConstraintViolationException) {
+                String constraint = ((ConstraintViolationException) cause).getConstraintName();
+                return constraint != null &&
+                       constraint.toLowerCase().contains(BAG_MD5SUM_CONSTRAINT);
+            }
+        }
+        return false;
+    }
+
+    private static MessageTypeKey makeMessageTypeKey(final String name, final String md5sum) {
         MessageTypeKey key = new MessageTypeKey();
         key.name = name;
         key.md5sum = md5sum;
-        MessageType dbType = myMTRepository.findById(key).orElse(null);
+        return key;
+    }
+
+    /**
+     * Looks up a message type in the cache, falling back to the database if
+     * it hasn't been cached yet.
+     * @param key The message type to find.
+     * @return The message type, or null if it isn't in the database.
+     */
+    private MessageType getCachedMessageType(final MessageTypeKey key) {
+        MessageType dbType = myMessageTypeCache.getIfPresent(key);
         if (dbType == null) {
-            myLogger.info("Adding new MessageType to DB: " +
-                                  name + " / " + md5sum);
-            dbType = new MessageType();
-            dbType.setMd5sum(md5sum);
-            dbType.setName(name);
-        }
-        else {
-            myLogger.debug("Found existing MessageType in DB: " +
-                                   name + " / " + md5sum);
+            dbType = myMTRepository.findById(key).orElse(null);
+            if (dbType != null) {
+                myMessageTypeCache.put(key, dbType);
+            }
         }
-        bag.getMessageTypes().add(dbType);
         return dbType;
     }
 
@@ -0,0 +1,176 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.bags;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Simplifies GPS paths using the Douglas-Peucker algorithm at several
+ * different tolerances in order to produce multiple levels of detail.
+ *
+ * <p>Each level is simplified from the level that is one step finer than it,
+ * so every point at a coarse level is also present at every finer level.
+ * That means a path at any level can be retrieved by selecting all of the
+ * points whose detail level is less than or equal to it.
+ */
+class GpsPathSimplifier {
+    private static final double EARTH_RADIUS_M = 6371008.8;
+
+    /**
+     * Indicates that a point isn't needed at any level of detail.
+     */
+    static final int DISCARDED = -1;
+
+    private GpsPathSimplifier() {
+    }
+
+    /**
+     * Determines the coarsest level of detail that each point in a path belongs to.
+     * @param latitudes The latitude of each point, in degrees.
+     * @param longitudes The longitude of each point, in degrees.
+     * @param tolerancesM The distance tolerance for each level of detail in
+     *                    meters, ordered from coarsest (level 0) to finest.
+     *                    If this is empty, every point is kept at level 0;
+     *                    if the finest tolerance is 0, every point is kept at
+     *                    that level.
+     * @return The level of detail for every point, or {@link #DISCARDED} for
+     * points that aren't needed even at the finest level.
+     */
+    static int[] computeDetailLevels(double[] latitudes, double[] longitudes, double[] tolerancesM) {
+        int count = latitudes.length;
+        int[] levels = new int[count];
+        if (tolerancesM.length == 0 || count <= 2) {
+            return levels;
+        }
+
+        // Project everything onto a flat plane around the first point; over the
+        // distances covered by a single bag file, that's accurate enough.
+        double[] x = new double[count];
+        double[] y = new double[count];
+        double cosLat0 = Math.cos(Math.toRadians(latitudes[0]));
+        for (int i = 0; i < count; i++) {
+            x[i] = Math.toRadians(longitudes[i] - longitudes[0]) * cosLat0 * EARTH_RADIUS_M;
+            y[i] = Math.toRadians(latitudes[i] - latitudes[0]) * EARTH_RADIUS_M;
+        }
+
+        int[] indices = new int[count];
+        for (int i = 0; i < count; i++) {
+            indices[i] = i;
+        }
+
+        Arrays.fill(levels, DISCARDED);
+        for (int level = tolerancesM.length - 1; level >= 0; level--) {
+            indices = simplify(x, y, indices, tolerancesM[level]);
+            for (int index : indices) {
+                levels[index] = level;
+            }
+        }
+
+        return levels;
+    }
+
+    /**
+     * Runs the Douglas-Peucker algorithm over a subset of the points in a path.
+     * @param x The X coordinates of every point in the path.
+     * @param y The Y coordinates of every point in the path.
+     * @param indices The indices of the points to simplify, in order.
+     * @param tolerance Points that are closer than this to the simplified path
+     *                  will be removed.  If this is 0 or less, every point is
+     *                  kept, even ones that lie exactly on the path.
+     * @return The indices of the points that were kept, in order.
+     */
+    static int[] simplify(double[] x, double[] y, int[] indices, double tolerance) {
+        int count = indices.length;
+        if (count <= 2 || tolerance <= 0.0) {
+            return indices;
+        }
+
+        boolean[] keep = new boolean[count];
+        keep[0] = true;
+        keep[count - 1] = true;
+
+        // Paths can have hundreds of thousands of points, so this uses a stack
+        // rather than recursion.
+        Deque<int[]> ranges = new ArrayDeque<>();
+        ranges.push(new int[]{0, count - 1});
+        while (!ranges.isEmpty()) {
+            int[] range = ranges.pop();
+            int first = range[0];
+            int last = range[1];
+
+            double maxDistance = -1.0;
+            int farthest = -1;
+            for (int i = first + 1; i < last; i++) {
+                double distance = distanceToSegment(x, y, indices[i], indices[first], indices[last]);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    farthest = i;
+                }
+            }
+
+            if (farthest != -1 && maxDistance > tolerance) {
+                keep[farthest] = true;
+                ranges.push(new int[]{first, farthest});
+                ranges.push(new int[]{farthest, last});
+            }
+        }
+
+        int keptCount = 0;
+        for (boolean k : keep) {
+            if (k) {
+                keptCount++;
+            }
+        }
+        int[] kept = new int[keptCount];
+        for (int i = 0, j = 0; i < count; i++) {
+            if (keep[i]) {
+                kept[j++] = indices[i];
+            }
+        }
+        return kept;
+    }
+
+    private static double distanceToSegment(double[] x, double[] y, int point, int start, int end) {
+        double dx = x[end] - x[start];
+        double dy = y[end] - y[start];
+        double lengthSquared = dx * dx + dy * dy;
+        double t = 0.0;
+        if (lengthSquared > 0.0) {
+            t = ((x[point] - x[start]) * dx + (y[point] - y[start]) * dy) / lengthSquared;
+            t = Math.max(0.0, Math.min(1.0, t));
+        }
+        double px = x[start] + t * dx - x[point];
+        double py = y[start] + t * dy - y[point];
+        return Math.sqrt(px * px + py * py);
+    }
+}
@@ -31,7 +31,12 @@
 package com.github.swrirobotics.bags.filesystem;
 
 
+import com.github.swrirobotics.bags.BagIngestPipeline;
+import com.github.swrirobotics.bags.BagSearchIndex;
+import com.github.swrirobotics.bags.BagsChangedEvent;
 import com.github.swrirobotics.bags.BagService;
+import com.github.swrirobotics.bags.DerivedField;
+import com.github.swrirobotics.bags.filesystem.watcher.FileChangeSet;
 import com.github.swrirobotics.bags.filesystem.watcher.RecursiveWatcher;
 import com.github.swrirobotics.persistence.*;
 import com.github.swrirobotics.bags.reader.BagFile;
@@ -44,16 +49,18 @@ import com.github.swrirobotics.config.ConfigService;
 import com.github.swrirobotics.remote.GeocodingService;
 import com.github.swrirobotics.status.Status;
 import com.github.swrirobotics.status.StatusProvider;
+import com.github.swrirobotics.support.web.Configuration;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import org.hibernate.exception.ConstraintViolationException;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.DependsOn;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -66,21 +73,27 @@ import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 @Service
 @Profile("default")
 // This class doesn't directly access it, but we need to depend on the Liquibase
 // bean to ensure the database is configured before our @PostContruct runs.
 @DependsOn("liquibase")
-public class BagScanner extends StatusProvider implements RecursiveWatcher.WatchListener {
+public class BagScanner extends StatusProvider
+        implements RecursiveWatcher.WatchListener, ConfigService.ConfigurationListener {
     @Autowired
     private ConfigService myConfigService;
     @Autowired
@@ -94,13 +107,24 @@ public class BagScanner extends StatusProvider implements RecursiveWatcher.Watch
     @Autowired
     private BagService myBagService;
     @Autowired
+    private BagIngestPipeline myIngestPipeline;
+    @Autowired
     private GeocodingService myGeocodingService;
+    @Autowired
+    private BagSearchIndex mySearchIndex;
+    @Autowired
+    private BagTreeCache myTreeCache;
+    @Autowired
+    private ApplicationEventPublisher myEventPublisher;
 
     @PersistenceContext
     private EntityManager myEM;
 
     private final ExecutorService myExecutor = Executors.newSingleThreadExecutor();
 
+    // Mass updates load and save bags in batches of this many.
+    private static final int UPDATE_BATCH_SIZE = 100;
+
     private RecursiveWatcher myWatcher = null;
 
     private final Logger myLogger = LoggerFactory.getLogger(BagScanner.class);
@@ -116,13 +140,14 @@ public class BagScanner extends StatusProvider implements RecursiveWatcher.Watch
         String updateMsg = "Bag scanner is initializing.";
         reportStatus(Status.State.WORKING, updateMsg);
         myLogger.info(updateMsg);
+        myConfigService.registerConfigurationListener(this);
 
         // All of these update tasks can be manually activated
         // through the admin page, but uncomment them here if you
         // want them to be run on startup.
 
-        // Rebuilds the Lucene search database from the SQL database
-        //rebuildLuceneDatabase();
+        // Rebuilds the full-text search index from the SQL database
+        //mySearchIndex.rebuild();
         // Updates the lat/lon coordinates in bags from the bag files
         //updateAllLatLons();
         // Updates the "location" string via reverse Geocoding the lat/lon coordinates
@@ -159,16 +184,56 @@ public class BagScanner extends StatusProvider implements RecursiveWatcher.Watch
         initialize();
     }
 
+    @Override
+    public void configurationChanged(Configuration oldConfig, Configuration newConfig) {
+        if (oldConfig != null && !Objects.equals(oldConfig.getBagPath(), newConfig.getBagPath())) {
+            // If the bag path has changed, we should rescan.
+            myLogger.info("Bag path changed to " + newConfig.getBagPath() + "; rescanning.");
+            reset();
+        }
+    }
+
+    /**
+     * Updates some information for every bag in the database.  Bags are
+     * loaded in batches whose IDs are paged through with a keyset query; the
+     * batches are processed in parallel, and every bag in a batch that was
+     * modified is saved in a single transaction.  Errors are logged and
+     * reported per batch so that one bad batch doesn't stop the whole job.
+     */
     private abstract class MassBagUpdater implements Runnable {
         @Override
         public void run() {
             String updateMsg = "Updating " + updateType() + " for all bag files.";
             myLogger.info(updateMsg);
-            List<Long> bagIds = myBagService.getAllBagIds();
-
-            for (Long bagId : bagIds) {
-                reportStatus(Status.State.WORKING, updateMsg);
-                updateBag(bagId);
+            reportStatus(Status.State.WORKING, updateMsg);
+
+            Integer threads = myConfigService.getConfiguration().getUpdaterThreads();
+            int threadCount = threads != null && threads > 0 ?
+                              threads : Runtime.getRuntime().availableProcessors();
+            // If the workers fall behind, this thread will process batches
+            // itself rather than queueing up more of them.
+            ThreadPoolExecutor workers = new ThreadPoolExecutor(
+                    threadCount, threadCount, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(threadCount * 2),
+                    new ThreadFactoryBuilder().setNameFormat("bag-updater-%d").build(),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            AtomicInteger bagCount = new AtomicInteger();
+            // IDs are read a page at a time, so only the pages that are
+            // queued or being worked on are ever in memory.
+            for (List<Long> bagIds : myBagService.getAllBagIds(UPDATE_BATCH_SIZE)) {
+                final long batchStart = bagIds.get(0);
+                final long batchEnd = bagIds.get(bagIds.size() - 1);
+                workers.execute(() -> updateBatch(batchStart, batchEnd, bagCount));
+            }
+            workers.shutdown();
+            try {
+                workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e) {
+                myLogger.warn("Interrupted while updating " + updateType() + ".");
+                workers.shutdownNow();
+                Thread.currentThread().interrupt();
+                return;
             }
 
             String doneMsg = "Done updating " + updateType() + " for all bag files.";
@@ -176,10 +241,94 @@ public class BagScanner extends StatusProvider implements RecursiveWatcher.Watch
             myLogger.info(doneMsg);
         }
 
+        private void updateBatch(long firstId, long lastId, AtomicInteger bagCount) {
+            List<Bag> bags;
+            try {
+                bags = findBags(firstId, lastId);
+            }
+            catch (RuntimeException e) {
+                myLogger.error("Unable to load bags " + firstId + " to " + lastId +
+                               " to update " + updateType() + ":", e);
+                reportStatus(Status.State.ERROR, "Unable to load bags " + firstId + " to " + lastId +
+                                                 ": " + e.getLocalizedMessage());
+                return;
+            }
+            List<Bag> modifiedBags = Lists.newArrayList();
+            for (Bag bag : bags) {
+                try {
+                    if (updateBag(bag)) {
+                        modifiedBags.add(bag);
+                    }
+                }
+                catch (RuntimeException e) {
+                    myLogger.error("Unable to update " + updateType() + " for bag " + bag.getId(), e);
+                }
+            }
+            List<Long> savedIds = saveBags(modifiedBags);
+            if (!savedIds.isEmpty()) {
+                myEventPublisher.publishEvent(new BagsChangedEvent(savedIds));
+            }
+            if (!bags.isEmpty()) {
+                reportStatus(Status.State.WORKING, "Updating " + updateType() + ": " +
+                             bagCount.addAndGet(bags.size()) + " bags done.");
+            }
+        }
+
+        /**
+         * Saves a batch of modified bags in a single transaction.  If that
+         * fails, the bags are saved again one at a time so that a single bad
+         * bag doesn't prevent the rest of them from being saved.
+         * @param bags The bags to save.
+         * @return The IDs of the bags that were saved.
+         */
+        private List<Long> saveBags(List<Bag> bags) {
+            if (bags.isEmpty()) {
+                return Lists.newArrayList();
+            }
+            try {
+                myBagRepo.saveAll(bags);
+                return bags.stream().map(Bag::getId).collect(Collectors.toList());
+            }
+            catch (RuntimeException e) {
+                myLogger.warn("Unable to save " + updateType() + " for bags " + bags.get(0).getId() +
+                              " to " + bags.get(bags.size() - 1).getId() +
+                              "; saving them individually: " + e.getLocalizedMessage());
+            }
+            List<Long> savedIds = Lists.newArrayList();
+            for (Bag bag : bags) {
+                try {
+                    myBagRepo.save(bag);
+                    savedIds.add(bag.getId());
+                }
+                catch (RuntimeException e) {
+                    myLogger.error("Unable to save " + updateType() + " for bag " + bag.getId() + ":", e);
+                    reportStatus(Status.State.ERROR, "Unable to save " + updateType() + " for bag " +
+                                                     bag.getId() + ": " + e.getLocalizedMessage());
+                }
+            }
+            return savedIds;
+        }
+
         abstract protected String updateType();
 
-        @Transactional
-        abstract protected void updateBag(Long bagId);
+        /**
+         * Loads the bags in a batch.  Updaters that can tell which bags need
+         * to be updated from the database should override this to skip the
+         * rest of them.
+         * @param firstId The first ID in the batch.
+         * @param lastId The last ID in the batch.
+         * @return The bags with IDs in the batch that may need to be updated.
+         */
+        protected List<Bag> findBags(long firstId, long lastId) {
+            return myBagRepo.findByIdBetween(firstId, lastId);
+        }
+
+        /**
+         * Updates a single bag.  This is called from multiple threads at once.
+         * @param bag The bag to update.
+         * @return True if the bag was modified and needs to be saved.
+         */
+        abstract protected boolean updateBag(Bag bag);
     }
 
     private class LocationUpdater extends MassBagUpdater {
@@ -189,18 +338,17 @@ public class BagScanner extends StatusProvider implements RecursiveWatcher.Watch
         }
 
         @Override
-        @Transactional
-        public void updateBag(Long bagId) {
-            Bag bag = myBagRepo.findById(bagId).orElseThrow();
+        public boolean updateBag(Bag bag) {
             if ((bag.getLocation() == null || bag.getLocation().isEmpty()) &&
                     bag.getLatitudeDeg() != null && bag.getLongitudeDeg() != null &&
                     Math.abs(bag.getLatitudeDeg()) > 0.0001 &&
                     Math.abs(bag.getLongitudeDeg()) > 0.0001) {
-                myLogger.debug("Updating location for bag " + bagId + ".");
+                myLogger.debug("Updating location for bag " + bag.getId() + ".");
                 String location = myGeocodingService.getLocationName(bag.getLatitudeDeg(), bag.getLongitudeDeg());
                 bag.setLocation(location);
-                myBagRepo.save(bag);
+                return true;
             }
+            return false;
         }
     }
 
@@ -211,16 +359,16 @@ public class BagScanner extends StatusProvider implements RecursiveWatcher.Watch
         }
 
         @Override
-        @Transactional
-        public void updateBag(Long bagId) {
+        public boolean updateBag(Bag bag) {
             String[] vehicleNames =
                     myConfigService.getConfiguration().getVehicleNameTopics();
             if (vehicleNames.length == 0) {
                 myLogger.debug("No vehicle name topics configured.");
-                return;
+                return false;
             }
 
-            Bag bag = myBagRepo.findById(bagId).orElseThrow();
+            // Unlike re-extracting fields, this also checks bags whose vehicle
+            // name is empty because an earlier check didn't find one.
             if (bag.getVehicle() == null || bag.getVehicle().isEmpty()) {
                 String fullPath = bag.getPath() + bag.getFilename();
                 try {
@@ -230,7 +378,7 @@ public class BagScanner extends StatusProvider implements RecursiveWatcher.Watch
                         myLogger.debug("Setting vehicle name for " +
                                        fullPath + " to " + name);
                         bag.setVehicle(name);
-                        myBagRepo.save(bag);
+                        return true;
                     }
                 }
                 catch (BagReaderException e) {
@@ -241,6 +389,7 @@ public class BagScanner extends StatusProvider implements RecursiveWatcher.Watch
                                  "Updating vehicle names for all bag files.");
                 }
             }
+            return false;
         }
     }
 
@@ -251,12 +400,11 @@ public class BagScanner extends StatusProvider implements RecursiveWatcher.Watch
         }
 
         @Override
-        @Transactional
-        public void updateBag(Long bagId) {
-            Bag bag = myBagRepo.findById(bagId).orElseThrow();
+        public boolean updateBag(Bag bag) {
             String fullPath = bag.getPath() + bag.getFilename();
             try {
                 BagFile bagFile = BagReader.readFile(fullPath);
+                // This saves the tags itself.
                 myBagService.addTagsToBag(bagFile,bag);
             } catch (BagReaderException e) {
                 reportStatus(Status.State.ERROR,
@@ -265,6 +413,7 @@ public class BagScanner extends StatusProvider implements RecursiveWatcher.Watch
                 reportStatus(Status.State.WORKING,
                         "Updating tags for all bag files.");
             }
+            return false;
         }
     }
 
@@ -275,9 +424,8 @@ public class BagScanner extends StatusProvider implements RecursiveWatcher.Watch
         }
 
         @Override
-        @Transactional
-        public void updateBag(Long bagId) {
-            myBagService.updateGpsPositionsForBagId(bagId);
+        public boolean updateBag(Bag bag) {
+            return myBagService.updateGpsPositionsForBag(bag);
         }
     }
 
@@ -288,10 +436,7 @@ public class BagScanner extends StatusProvider implements RecursiveWatcher.Watch
         }
 
         @Override
-        @Transactional
-        public void updateBag(Long bagId) {
-            Bag bag = myBagRepo.findById(bagId).orElseThrow();
-
+        public boolean updateBag(Bag bag) {
             if (bag.getLatitudeDeg() == null ||
                     bag.getLongitudeDeg() == null ||
                     (Math.abs(bag.getLatitudeDeg()) < 0.0001 &&
@@ -315,7 +460,7 @@ public class BagScanner extends StatusProvider implements RecursiveWatcher.Watch
                                 mt.<Float64Type>getField("longitude").getValue()));
                         myLogger.debug("Setting lat/lon for " + fullPath + " to: " +
                                                bag.getLatitudeDeg() + " / " + bag.getLongitudeDeg());
-                        myBagRepo.save(bag);
+                        return true;
                     }
                 }
                 catch (BagReaderException | UninitializedFieldException e) {
@@ -324,6 +469,48 @@ public class BagScanner extends StatusProvider implements RecursiveWatcher.Watch
                     reportStatus(Status.State.WORKING, "Updating GPS info for all bag files.");
                 }
             }
+            return false;
+        }
+    }
+
+    /**
+     * Fills in any of a set of fields that bags are missing by reading them
+     * from their bag files.  Each bag file is read at most once no matter how
+     * many fields are selected, and bags that already have all of them are
+     * never loaded.
+     */
+    private class FieldReextractor extends MassBagUpdater {
+        private final Set<DerivedField> myFields;
+        private final List<String> myMetadataTopics;
+
+        FieldReextractor(Set<DerivedField> fields) {
+            myFields = EnumSet.copyOf(fields);
+            myMetadataTopics = Lists.newArrayList(
+                    myConfigService.getConfiguration().getMetadataTopics());
+            if (myMetadataTopics.isEmpty() && myFields.remove(DerivedField.TAGS)) {
+                myLogger.info("No metadata topics are configured; not re-extracting tags.");
+            }
+        }
+
+        @Override
+        protected String updateType() {
+            return "re-extracted fields";
+        }
+
+        @Override
+        protected List<Bag> findBags(long firstId, long lastId) {
+            return myBagRepo.findByIdBetweenMissingFields(
+                    firstId, lastId,
+                    myFields.contains(DerivedField.COORDINATE),
+                    myFields.contains(DerivedField.GPS_PATH),
+                    myFields.contains(DerivedField.VEHICLE_NAME),
+                    myFields.contains(DerivedField.TAGS),
+                    myMetadataTopics);
+        }
+
+        @Override
+        public boolean updateBag(Bag bag) {
+            return myBagService.reextractFields(bag, myFields);
         }
     }
 
@@ -352,6 +539,19 @@ public class BagScanner extends StatusProvider implements RecursiveWatcher.Watch
         myExecutor.execute(new TagUpdater());
     }
 
+    /**
+     * Fills in any of the selected fields that bags in the database are
+     * missing by reading them from their bag files.
+     * @param fields The fields to fill in.
+     */
+    public void reextractFields(Set<DerivedField> fields) {
+        if (fields.isEmpty()) {
+            myLogger.info("No fields selected to re-extract.");
+            return;
+        }
+        myExecutor.execute(new FieldReextractor(fields));
+    }
+
     public void scanDirectory(boolean forceUpdate) {
         String bagDir = myConfigService.getConfiguration().getBagPath();
         if (bagDir == null || bagDir.isEmpty()) {
@@ -364,16 +564,9 @@ public class BagScanner extends StatusProvider implements RecursiveWatcher.Watch
         myExecutor.execute(new FullScanner(forceUpdate, bagDir));
     }
 
-    private boolean presentSpecialCharacters(Path dir){
-        String dirName = dir.toString();
-        Pattern p = Pattern.compile("@.*");
-        Matcher m = p.matcher(dirName);
-        return m.find();
-    }
-
     private Set<File> getBagFiles(Path dir) {
         Set<File> bagFiles = Sets.newHashSet();
-        if (!presentSpecialCharacters(dir.getFileName())) {
+        if (!ParallelBagFinder.isIgnoredDirectory(dir)) {
             try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.bag")) {
                 for (Path bagFile : stream) {
                     myLogger.trace("  Adding: " + bagFile.toString());
@@ -397,9 +590,47 @@ public class BagScanner extends StatusProvider implements RecursiveWatcher.Watch
     }
 
     @Override
-    public void watchEventsOccurred() {
-        myLogger.info("Filesystem change detected.");
-        scanDirectory(false);
+    public void watchEventsOccurred(FileChangeSet changes) {
+        myLogger.info("Filesystem change detected: " + changes);
+        myTreeCache.filesChanged(changes);
+        if (changes.isOverflowed()) {
+            // We lost track of what changed, so we have to check everything.
+            scanDirectory(false);
+        }
+        else if (!changes.isEmpty()) {
+            myExecutor.execute(new IncrementalScanner(changes));
+        }
+    }
+
+    /**
+     * Checks every file in a set of bag files against the database, inserting
+     * new bags and updating ones that have moved.  The files are processed by
+     * the ingest pipeline, which runs the various steps in parallel.
+     */
+    private void updateBagFiles(Collection<File> bagFiles,
+                                final Map<String, Long> existingBagPaths,
+                                final Map<String, Long> missingBagMd5sums,
+                                final boolean forceUpdate) throws InterruptedException {
+        BagIngestPipeline.Batch batch = myIngestPipeline.startBatch(
+                existingBagPaths, missingBagMd5sums, forceUpdate);
+        for (final File file : bagFiles) {
+            batch.submit(file);
+        }
+        batch.await();
+
+        finishScan(missingBagMd5sums);
+    }
+
+    /**
+     * Marks any bags that are still missing after a scan and, if configured
+     * to, removes them from the database.
+     */
+    private void finishScan(final Map<String, Long> missingBagMd5sums) {
+        myBagService.markMissingBags(missingBagMd5sums.values());
+
+        if (myConfigService.getConfiguration().getRemoveOnDeletion()) {
+            myBagService.removeMissingBags();
+        }
     }
 
     @Override
@@ -411,9 +642,6 @@ public class BagScanner extends StatusProvider implements RecursiveWatcher.Watch
         final private boolean forceUpdate;
         private final String myBagDirectory;
 
-        private final ExecutorService bagService = Executors.newFixedThreadPool(
-                Runtime.getRuntime().availableProcessors());
-
         public FullScanner(boolean forceUpdate, String bagPath) {
             this.myBagDirectory = bagPath;
             this.forceUpdate = forceUpdate;
@@ -426,12 +654,10 @@ public class BagScanner extends StatusProvider implements RecursiveWatcher.Watch
             myLogger.info(msg);
             try {
                 Path bagDir = FileSystems.getDefault().getPath(myBagDirectory);
-                Set<File> bagFiles = getBagFiles(bagDir);
-
-                myLogger.debug("Found " + bagFiles.size() + " bag files on disk.");
 
-                final Map<String, Long> existingBagPaths = Maps.newHashMap();
-                final Map<String, Long> missingBagMd5sums = Maps.newHashMap();
+                // These are shared by all of the threads in the ingest pipeline.
+                final Map<String, Long> existingBagPaths = Maps.newConcurrentMap();
+                final Map<String, Long> missingBagMd5sums = Maps.newConcurrentMap();
 
                 // First, scan over all of the existing entries in the DB and see if
                 // any of them are missing from the filesystem.  This will also
@@ -441,46 +667,27 @@ public class BagScanner extends StatusProvider implements RecursiveWatcher.Watch
                 myLogger.debug(existingBagPaths.size() + " bags exist in the database and are not missing.");
                 myLogger.debug(missingBagMd5sums.size() + " in the DB are missing on disk.");
 
-                // Next, go over all the files on the filesystem.  Calculating individual
-                // md5sums is CPU-intensive, so we might as well do multiple bags in parallel.
-                for (final File file : bagFiles) {
-                    bagService.execute(() -> {
-                        try {
-                            myBagService.updateBagFile(file,
-                                                       existingBagPaths,
-                                                       missingBagMd5sums,
-                                                       forceUpdate);
-                        }
-                        catch (ConstraintViolationException e) {
-                            // Constraint name is hard-coded in db.changelog-1.0.yaml
-                            if ("uk_a2r00kd2qd94dohkimsp5rdgn".equals(e.getConstraintName())) {
-                                String message = "The data in " + file.getName() + " seems to be a duplicate " +
-                                        "of an existing bag file.  If you believe this is incorrect, please " +
-                                        "report it as a bug.";
-                                reportStatus(Status.State.ERROR, message);
-                                myLogger.warn(message);
-                                myLogger.warn(e.getLocalizedMessage());
-                            }
-                            else {
-                                String message = e.getLocalizedMessage();
-                                reportStatus(Status.State.ERROR,"Error checking bag file: " + message);
-                                myLogger.error("Unexpected error updating bag file:", e);
-                            }
-                        }
-                        catch (RuntimeException e) {
-                            reportStatus(Status.State.ERROR,
-                                         "Error checking bag file: " + e.getLocalizedMessage());
-                            myLogger.error("Unexpected error updating bag file:", e);
-                        }
-                    });
+                // Next, go over all the files on the filesystem.  Any directories
+                // that have changed since they were last read will be cached again
+                // as they're searched.
+                myTreeCache.invalidateDirectories();
+                if (myConfigService.getConfiguration().getParallelDiscovery()) {
+                    // Bags are added to the pipeline as soon as they're found.
+                    BagIngestPipeline.Batch batch = myIngestPipeline.startBatch(
+                            existingBagPaths, missingBagMd5sums, forceUpdate);
+                    ParallelBagFinder finder = new ParallelBagFinder(batch::submit, (dir, e) -> {
+                        myLogger.error("Error parsing directory:", e);
+                        reportStatus(Status.State.ERROR, "Unable to read directory: " + dir.toString());
+                    }, myTreeCache::putDirectory);
+                    long bagCount = finder.find(bagDir, Runtime.getRuntime().availableProcessors());
+                    myLogger.debug("Found " + bagCount + " bag files on disk.");
+                    batch.await();
+                    finishScan(missingBagMd5sums);
                 }
-                bagService.shutdown();
-                bagService.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
-
-                myBagService.markMissingBags(missingBagMd5sums.values());
-
-                if (myConfigService.getConfiguration().getRemoveOnDeletion()) {
-                    myBagService.removeMissingBags();
+                else {
+                    Set<File> bagFiles = getBagFiles(bagDir);
+                    myLogger.debug("Found " + bagFiles.size() + " bag files on disk.");
+                    updateBagFiles(bagFiles, existingBagPaths, missingBagMd5sums, forceUpdate);
                 }
             }
             catch (RuntimeException e) {
@@ -489,7 +696,6 @@ public class BagScanner extends StatusProvider implements RecursiveWatcher.Watch
                 reportStatus(Status.State.ERROR, error + e.getLocalizedMessage());
             }
             catch (InterruptedException e) {
-                bagService.shutdownNow();
                 String error = "Interrupted while waiting for bag updates to complete.";
                 myLogger.warn(error, e);
                 reportStatus(Status.State.ERROR, error);
@@ -499,4 +705,64 @@ public class BagScanner extends StatusProvider implements RecursiveWatcher.Watch
             reportStatus(Status.State.IDLE, "Done checking bag files.");
         }
     }
+
+    /**
+     * Only checks the files and directories that the file watcher reported as
+     * having changed, rather than walking the entire bag directory and checking
+     * every bag in the database.
+     */
+    private class IncrementalScanner implements Runnable {
+        private final FileChangeSet myChanges;
+
+        public IncrementalScanner(FileChangeSet changes) {
+            myChanges = changes;
+        }
+
+        @Override
+        public void run() {
+            String msg = "Checking changed paths for bag files.";
+            reportStatus(Status.State.WORKING, msg);
+            myLogger.info(msg);
+            try {
+                Set<Path> changedPaths = Sets.newLinkedHashSet();
+                changedPaths.addAll(myChanges.getDeletedPaths());
+                changedPaths.addAll(myChanges.getCreatedPaths());
+                changedPaths.addAll(myChanges.getModifiedPaths());
+
+                // New directories may have been moved in with bags already inside
+                // of them, so those need to be walked; otherwise we only care about
+                // bag files that were directly touched.
+                Set<File> bagFiles = Sets.newHashSet();
+                for (Path path : changedPaths) {
+                    if (Files.isDirectory(path)) {
+                        bagFiles.addAll(getBagFiles(path));
+                    }
+                    else if (path.toString().endsWith(".bag") && Files.isRegularFile(path)) {
+                        bagFiles.add(path.toAbsolutePath().toFile());
+                    }
+                }
+                myLogger.debug("Found " + bagFiles.size() + " changed bag files on disk.");
+
+                final Map<String, Long> existingBagPaths = Maps.newConcurrentMap();
+                final Map<String, Long> missingBagMd5sums = Maps.newConcurrentMap();
+                myBagService.scanDatabaseBags(changedPaths, existingBagPaths, missingBagMd5sums);
+                myLogger.debug(missingBagMd5sums.size() + " bags under changed paths are missing on disk.");
+
+                updateBagFiles(bagFiles, existingBagPaths, missingBagMd5sums, false);
+            }
+            catch (RuntimeException e) {
+                String error = "Unexpected exception when checking changed bag files: ";
+                myLogger.warn(error, e);
+                reportStatus(Status.State.ERROR, error + e.getLocalizedMessage());
+            }
+            catch (InterruptedException e) {
+                String error = "Interrupted while waiting for bag updates to complete.";
+                myLogger.warn(error, e);
+                reportStatus(Status.State.ERROR, error);
+            }
+
+            myLogger.debug("Done checking changed bag files.");
+            reportStatus(Status.State.IDLE, "Done checking bag files.");
+        }
+    }
 }
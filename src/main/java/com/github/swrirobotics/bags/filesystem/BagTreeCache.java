@@ -0,0 +1,268 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.bags.filesystem;
+
+import com.github.swrirobotics.bags.BagsChangedEvent;
+import com.github.swrirobotics.bags.filesystem.watcher.FileChangeSet;
+import com.github.swrirobotics.persistence.Bag;
+import com.github.swrirobotics.persistence.BagPathInfo;
+import com.github.swrirobotics.persistence.BagRepository;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Caches what the bag tree needs to show the contents of a directory: the
+ * subdirectories of every directory, whether each one is empty, and the grid
+ * rows of the bags in it.  The tree asks for a directory every time somebody
+ * expands it, and without this every request would list the directory and
+ * all of its subdirectories and query the database for the bags in it.
+ *
+ * Directories are filled in as the bag scanner walks the filesystem and are
+ * read on demand if the scanner hasn't seen them; they're discarded when the
+ * file watcher reports that something inside them was created or deleted.
+ * Bag rows are loaded the first time a directory is opened and are discarded
+ * when a {@link BagsChangedEvent} is committed for any bag that is, or was,
+ * in that directory.
+ */
+@Service
+public class BagTreeCache {
+    @Autowired
+    private BagRepository myBagRepository;
+
+    // Bag rows are small, but there could be thousands of them in a single
+    // directory, so the cache is limited by the total number of bags in it.
+    private static final long MAX_CACHED_BAGS = 20000;
+    private static final int UPDATE_CHUNK_SIZE = 1000;
+
+    // All of these are only modified while synchronized on this object.
+    private final Map<String, Directory> myDirectories = Maps.newConcurrentMap();
+    private final Map<Long, String> myBagDirectories = Maps.newConcurrentMap();
+    private final Cache<String, List<Bag>> myBags = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_CACHED_BAGS)
+            .weigher((String path, List<Bag> bags) -> bags.size() + 1)
+            .removalListener((RemovalNotification<String, List<Bag>> removed) -> {
+                for (Bag bag : removed.getValue()) {
+                    myBagDirectories.remove(bag.getId(), removed.getKey());
+                }
+            })
+            .build();
+
+    // Incremented every time anything is discarded from the cache; a
+    // directory or set of bags that started loading before then may be out
+    // of date, so it isn't cached.
+    private long myGeneration = 0;
+
+    /**
+     * The contents of a directory on disk.
+     */
+    public static class Directory {
+        private final List<String> mySubdirectories;
+        private final boolean myIsEmpty;
+
+        Directory(List<String> subdirectories, boolean isEmpty) {
+            mySubdirectories = ImmutableList.copyOf(subdirectories);
+            myIsEmpty = isEmpty;
+        }
+
+        /**
+         * @return The names of the directories inside this one, not including
+         * ones that the scanner ignores.
+         */
+        public List<String> getSubdirectories() {
+            return mySubdirectories;
+        }
+
+        /**
+         * @return true if the directory doesn't contain any files or directories.
+         */
+        public boolean isEmpty() {
+            return myIsEmpty;
+        }
+    }
+
+    /**
+     * Gets the contents of a directory, reading it from the filesystem if
+     * they aren't cached.
+     * @param path The absolute path to the directory, with a trailing slash.
+     * @return The directory's contents.
+     * @throws IOException If the directory isn't cached and couldn't be read.
+     */
+    public Directory getDirectory(String path) throws IOException {
+        Directory dir = myDirectories.get(path);
+        if (dir == null) {
+            long generation = getGeneration();
+            dir = readDirectory(Paths.get(path));
+            synchronized (this) {
+                if (generation == myGeneration) {
+                    myDirectories.put(path, dir);
+                }
+            }
+        }
+        return dir;
+    }
+
+    /**
+     * Gets the bags in a directory from the cache, or loads and caches them
+     * if they aren't there.
+     * @param path The absolute path to the directory, with a trailing slash.
+     * @param loader Loads the bags that are directly inside a directory.
+     * @return The bags in the directory.
+     */
+    public List<Bag> getBags(String path, Function<String, List<Bag>> loader) {
+        List<Bag> bags = myBags.getIfPresent(path);
+        if (bags == null) {
+            long generation = getGeneration();
+            bags = ImmutableList.copyOf(loader.apply(path));
+            synchronized (this) {
+                if (generation == myGeneration) {
+                    myBags.put(path, bags);
+                    for (Bag bag : bags) {
+                        myBagDirectories.put(bag.getId(), path);
+                    }
+                }
+            }
+        }
+        return bags;
+    }
+
+    /**
+     * Caches the contents of a directory that the bag scanner read.
+     * @param dir The directory.
+     * @param subdirectories The names of the directories inside it.
+     * @param isEmpty true if the directory has nothing in it at all.
+     */
+    public synchronized void putDirectory(Path dir, List<String> subdirectories, boolean isEmpty) {
+        myDirectories.put(toKey(dir), new Directory(subdirectories, isEmpty));
+    }
+
+    /**
+     * Discards the contents of any directories that have changed.
+     * @param changes The paths that the file watcher saw change.
+     */
+    public synchronized void filesChanged(FileChangeSet changes) {
+        if (changes.isOverflowed()) {
+            invalidateDirectories();
+            return;
+        }
+
+        myGeneration++;
+        Set<Path> paths = Sets.newHashSet(changes.getCreatedPaths());
+        paths.addAll(changes.getDeletedPaths());
+        for (Path path : paths) {
+            // The directory that contains the path has a new or missing entry,
+            // and if the path is a directory, it and everything under it
+            // could be new or gone.
+            Path parent = path.getParent();
+            if (parent != null) {
+                myDirectories.remove(toKey(parent));
+            }
+            String key = toKey(path);
+            myDirectories.keySet().removeIf(dir -> dir.startsWith(key));
+        }
+    }
+
+    /**
+     * Discards the contents of every directory.
+     */
+    public synchronized void invalidateDirectories() {
+        myGeneration++;
+        myDirectories.clear();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onBagsChanged(BagsChangedEvent event) {
+        synchronized (this) {
+            myGeneration++;
+            if (myBags.size() == 0) {
+                return;
+            }
+        }
+
+        // Bags could have moved out of the directories they were cached in
+        // or into new ones, so both need to be discarded.
+        Set<String> changedDirs = Sets.newHashSet();
+        for (List<Long> bagIds : Lists.partition(event.getBagIds(), UPDATE_CHUNK_SIZE)) {
+            for (BagPathInfo bag : myBagRepository.findPathInfoByIdIn(bagIds)) {
+                changedDirs.add(bag.getPath());
+            }
+        }
+        synchronized (this) {
+            for (Long bagId : event.getBagIds()) {
+                String dir = myBagDirectories.get(bagId);
+                if (dir != null) {
+                    changedDirs.add(dir);
+                }
+            }
+            myBags.invalidateAll(changedDirs);
+        }
+    }
+
+    private static Directory readDirectory(Path dir) throws IOException {
+        List<String> subdirectories = Lists.newArrayList();
+        boolean isEmpty = true;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path entry : stream) {
+                isEmpty = false;
+                if (Files.isDirectory(entry) && !ParallelBagFinder.isIgnoredDirectory(entry)) {
+                    subdirectories.add(entry.getFileName().toString());
+                }
+            }
+        }
+        return new Directory(subdirectories, isEmpty);
+    }
+
+    private static String toKey(Path dir) {
+        String path = dir.toAbsolutePath().normalize().toString();
+        return path.endsWith("/") ? path : path + "/";
+    }
+
+    private synchronized long getGeneration() {
+        return myGeneration;
+    }
+}
@@ -0,0 +1,187 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.bags.filesystem;
+
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Finds bag files underneath a directory by reading every subdirectory in
+ * parallel on a {@link ForkJoinPool}.  Bag files are handed to a consumer as
+ * soon as they're found rather than being collected first, so they can start
+ * being processed while the rest of the tree is still being searched.
+ *
+ * <p>Each directory is only listed once, and the attributes of each entry
+ * are read once to see if it's a directory.  Everything else whose name ends
+ * in ".bag" is treated as a bag file; a directory named like a bag file is
+ * searched like any other directory.
+ * The contents of each directory can also be handed to a
+ * {@link DirectoryListener} so that they don't have to be read again later.
+ */
+class ParallelBagFinder {
+    // Directories that start with "@" are special directories created by some
+    // NAS devices (such as Synology's "@eaDir") and should be ignored.
+    private static final Pattern SPECIAL_DIR_PATTERN = Pattern.compile("@.*");
+
+    private final Consumer<File> myBagConsumer;
+    private final BiConsumer<Path, IOException> myErrorHandler;
+    private final DirectoryListener myDirectoryListener;
+    private final AtomicLong myBagCount = new AtomicLong(0);
+
+    private static final Logger myLogger = LoggerFactory.getLogger(ParallelBagFinder.class);
+
+    /**
+     * @param bagConsumer Called for every bag file that is found.  This may be
+     *                    called from multiple threads at once.
+     * @param errorHandler Called for every directory that couldn't be read.
+     */
+    ParallelBagFinder(Consumer<File> bagConsumer, BiConsumer<Path, IOException> errorHandler) {
+        this(bagConsumer, errorHandler, (dir, subdirectories, isEmpty) -> {});
+    }
+
+    /**
+     * @param bagConsumer Called for every bag file that is found.  This may be
+     *                    called from multiple threads at once.
+     * @param errorHandler Called for every directory that couldn't be read.
+     * @param directoryListener Called for every directory that was read.  This
+     *                          may be called from multiple threads at once.
+     */
+    ParallelBagFinder(Consumer<File> bagConsumer,
+                      BiConsumer<Path, IOException> errorHandler,
+                      DirectoryListener directoryListener) {
+        myBagConsumer = bagConsumer;
+        myErrorHandler = errorHandler;
+        myDirectoryListener = directoryListener;
+    }
+
+    interface DirectoryListener {
+        /**
+         * @param dir A directory that was searched.
+         * @param subdirectories The names of the directories inside of it,
+         *                       not including ignored directories.
+         * @param isEmpty true if the directory has nothing in it at all.
+         */
+        void directoryRead(Path dir, List<String> subdirectories, boolean isEmpty);
+    }
+
+    /**
+     * @param dir A directory.
+     * @return true if the directory should not be searched for bag files.
+     */
+    static boolean isIgnoredDirectory(Path dir) {
+        Path name = dir.getFileName();
+        return name != null && SPECIAL_DIR_PATTERN.matcher(name.toString()).find();
+    }
+
+    /**
+     * Searches a directory and all of its subdirectories for bag files.  This
+     * blocks until the search is complete.
+     * @param root The directory to search.
+     * @param parallelism The number of directories to read at once.
+     * @return The number of bag files that were found.
+     */
+    long find(Path root, int parallelism) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new DirectoryTask(root));
+        }
+        finally {
+            pool.shutdown();
+        }
+        return myBagCount.get();
+    }
+
+    private class DirectoryTask extends RecursiveAction {
+        private final Path myDir;
+
+        DirectoryTask(Path dir) {
+            myDir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            if (isIgnoredDirectory(myDir)) {
+                return;
+            }
+
+            List<DirectoryTask> subdirTasks = Lists.newArrayList();
+            List<String> subdirNames = Lists.newArrayList();
+            boolean isEmpty = true;
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(myDir)) {
+                for (Path entry : stream) {
+                    isEmpty = false;
+                    BasicFileAttributes attrs;
+                    try {
+                        attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                    }
+                    catch (IOException e) {
+                        // Probably a broken symlink or a file that was just deleted.
+                        myLogger.trace("Unable to read attributes for " + entry, e);
+                        continue;
+                    }
+                    if (attrs.isDirectory()) {
+                        myLogger.trace("  Checking subdir: " + entry.toString());
+                        subdirTasks.add(new DirectoryTask(entry));
+                        if (!isIgnoredDirectory(entry)) {
+                            subdirNames.add(entry.getFileName().toString());
+                        }
+                    }
+                    else if (entry.getFileName().toString().endsWith(".bag")) {
+                        myLogger.trace("  Adding: " + entry.toString());
+                        myBagCount.incrementAndGet();
+                        myBagConsumer.accept(entry.toAbsolutePath().toFile());
+                    }
+                }
+                myDirectoryListener.directoryRead(myDir, subdirNames, isEmpty);
+            }
+            catch (IOException e) {
+                myErrorHandler.accept(myDir, e);
+            }
+
+            invokeAll(subdirTasks);
+        }
+    }
+}
@@ -22,7 +22,6 @@ import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 import java.util.logging.Level;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -38,11 +37,15 @@ import static java.nio.file.StandardWatchEventKinds.*;
  *
  * <p>When a file event occurs, a timer is started to wait for the file operations
  * to settle. It is reset whenever a new event occurs. When the timer times out,
- * an event is thrown through the {@link WatchListener}.
+ * an event is thrown through the {@link WatchListener}.  Only the folders that
+ * were created or deleted in the meantime have their watches updated; the whole
+ * tree is only walked again if the watch service overflowed.
  *
  * @author Philipp C. Heckel <philipp.heckel@gmail.com>
  */
 public class DefaultRecursiveWatcher extends RecursiveWatcher {
+    private static final Pattern SPECIAL_DIR_PATTERN = Pattern.compile("@.*");
+
     private WatchService watchService;
     private final Map<Path, WatchKey> watchPathKeyMap;
 
@@ -60,25 +63,51 @@ public class DefaultRecursiveWatcher extends RecursiveWatcher {
 
     @Override
     protected void beforePollEventLoop() {
-        walkTreeAndSetWatches();
+        walkTreeAndSetWatches(root);
     }
 
     @Override
     protected boolean pollEvents() throws InterruptedException {
-        // Take events, but don't care what they are!
         WatchKey watchKey = watchService.take();
+        Path dir = (Path) watchKey.watchable();
 
-        watchKey.pollEvents();
-        watchKey.reset();
+        for (WatchEvent<?> event : watchKey.pollEvents()) {
+            WatchEvent.Kind<?> kind = event.kind();
+            if (kind == OVERFLOW) {
+                recordEvent(kind, null);
+            }
+            else {
+                recordEvent(kind, dir.resolve((Path) event.context()));
+            }
+        }
+        if (!watchKey.reset()) {
+            // The directory is no longer accessible; make sure anything that
+            // was in it gets checked.
+            recordEvent(ENTRY_DELETE, dir);
+        }
 
         // Events are always relevant; ignored paths are not monitored
         return true;
     }
 
     @Override
-    protected void watchEventsOccurred() {
-        walkTreeAndSetWatches();
-        unregisterStaleWatches();
+    protected void watchEventsOccurred(FileChangeSet changes) {
+        if (changes.isOverflowed()) {
+            walkTreeAndSetWatches(root);
+            unregisterStaleWatches();
+            return;
+        }
+
+        // A directory that was deleted and created again is in both sets; its
+        // old watch has to be cancelled before the new one can be registered.
+        for (Path deleted : changes.getDeletedPaths()) {
+            unregisterWatchesUnder(deleted);
+        }
+        for (Path created : changes.getCreatedPaths()) {
+            if (Files.isDirectory(created, LinkOption.NOFOLLOW_LINKS)) {
+                walkTreeAndSetWatches(created);
+            }
+        }
     }
 
     @Override
@@ -87,17 +116,14 @@ public class DefaultRecursiveWatcher extends RecursiveWatcher {
     }
 
     private boolean presentSpecialCharacters(Path dir){
-        String dirName = dir.toString();
-        Pattern p = Pattern.compile("@.*");
-        Matcher m = p.matcher(dirName);
-        return m.find();
+        return dir != null && SPECIAL_DIR_PATTERN.matcher(dir.toString()).find();
     }
 
-    private synchronized void walkTreeAndSetWatches() {
-        logger.log(Level.INFO, "Registering new folders at watch service ...");
+    private synchronized void walkTreeAndSetWatches(Path start) {
+        logger.log(Level.INFO, "Registering new folders under " + start + " at watch service ...");
 
         try {
-            Files.walkFileTree(root, new FileVisitor<>() {
+            Files.walkFileTree(start, new FileVisitor<>() {
                 @Override
                 public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
                     if (ignorePaths.contains(dir)||presentSpecialCharacters(dir.getFileName())) {
@@ -144,6 +170,15 @@ public class DefaultRecursiveWatcher extends RecursiveWatcher {
         }
     }
 
+    private synchronized void unregisterWatchesUnder(Path deleted) {
+        Set<Path> stalePaths = watchPathKeyMap.keySet().stream()
+                                              .filter(path -> path.startsWith(deleted))
+                                              .collect(Collectors.toSet());
+        for (Path stalePath : stalePaths) {
+            unregisterWatch(stalePath);
+        }
+    }
+
     private synchronized void registerWatch(Path dir) {
         if (!watchPathKeyMap.containsKey(dir)) {
             logger.log(Level.INFO, "- Registering " + dir);
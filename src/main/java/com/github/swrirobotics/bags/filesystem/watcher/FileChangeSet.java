@@ -0,0 +1,123 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.bags.filesystem.watcher;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * The set of paths that changed while a {@link RecursiveWatcher} was waiting
+ * for file system activity to settle.
+ *
+ * <p>If several events happen to the same path, they're combined so that
+ * listeners still see everything they need to react to: a path that was
+ * created and then modified is only reported as created, and a path that was
+ * deleted and then created again is reported as both deleted and created;
+ * listeners should handle deletions before creations.  Otherwise, the most
+ * recent event wins.  If the watch service dropped events,
+ * {@link #isOverflowed()} will be true and listeners should assume that
+ * anything under the root may have changed.
+ */
+public class FileChangeSet {
+    private final Set<Path> myCreatedPaths = new LinkedHashSet<>();
+    private final Set<Path> myModifiedPaths = new LinkedHashSet<>();
+    private final Set<Path> myDeletedPaths = new LinkedHashSet<>();
+    private boolean myIsOverflowed = false;
+
+    /**
+     * Records an event reported by the watch service.
+     * @param kind The kind of event.
+     * @param path The absolute path that the event applies to; ignored for
+     *             {@link java.nio.file.StandardWatchEventKinds#OVERFLOW}.
+     */
+    public synchronized void addEvent(WatchEvent.Kind<?> kind, Path path) {
+        if (kind == OVERFLOW) {
+            myIsOverflowed = true;
+            return;
+        }
+
+        if (kind == ENTRY_CREATE) {
+            // If the path was deleted earlier, whatever was there before is
+            // still gone, so the deletion is kept.
+            myModifiedPaths.remove(path);
+            myCreatedPaths.add(path);
+        }
+        else if (kind == ENTRY_MODIFY) {
+            // A new path that is then modified is still new.
+            if (!myCreatedPaths.contains(path)) {
+                myModifiedPaths.add(path);
+            }
+        }
+        else if (kind == ENTRY_DELETE) {
+            myCreatedPaths.remove(path);
+            myModifiedPaths.remove(path);
+            myDeletedPaths.add(path);
+        }
+    }
+
+    public synchronized void setOverflowed() {
+        myIsOverflowed = true;
+    }
+
+    public synchronized boolean isOverflowed() {
+        return myIsOverflowed;
+    }
+
+    public synchronized boolean isEmpty() {
+        return !myIsOverflowed && myCreatedPaths.isEmpty() &&
+               myModifiedPaths.isEmpty() && myDeletedPaths.isEmpty();
+    }
+
+    public synchronized Set<Path> getCreatedPaths() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(myCreatedPaths));
+    }
+
+    public synchronized Set<Path> getModifiedPaths() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(myModifiedPaths));
+    }
+
+    public synchronized Set<Path> getDeletedPaths() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(myDeletedPaths));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "FileChangeSet{created=" + myCreatedPaths.size() +
+               ", modified=" + myModifiedPaths.size() +
+               ", deleted=" + myDeletedPaths.size() +
+               ", overflowed=" + myIsOverflowed + "}";
+    }
+}
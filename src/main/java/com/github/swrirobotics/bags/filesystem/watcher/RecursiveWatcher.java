@@ -20,6 +20,7 @@ package com.github.swrirobotics.bags.filesystem.watcher;
 import java.io.IOException;
 import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.Path;
+import java.nio.file.WatchEvent;
 import java.util.List;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -32,7 +33,9 @@ import java.util.logging.Logger;
  *
  * <p>When a file event occurs, a timer is started to wait for the file operations
  * to settle. It is reset whenever a new event occurs. When the timer times out,
- * an event is thrown through the {@link WatchListener}.
+ * an event is thrown through the {@link WatchListener}.  The event carries a
+ * {@link FileChangeSet} describing every path that changed since the last
+ * event was thrown.
  *
  * <p>This is an abstract class, using several template methods that are called
  * in different lifecycle states: {@link #beforeStart()}, {@link #beforePollEventLoop()},
@@ -52,6 +55,7 @@ public abstract class RecursiveWatcher {
 
     private Thread watchThread;
     private Timer timer;
+    private FileChangeSet pendingChanges;
 
     public RecursiveWatcher(Path root, List<Path> ignorePaths, int settleDelay, WatchListener listener) {
         this.root = root;
@@ -60,6 +64,7 @@ public abstract class RecursiveWatcher {
         this.listener = listener;
 
         this.running = new AtomicBoolean(false);
+        this.pendingChanges = new FileChangeSet();
     }
 
     /**
@@ -150,19 +155,35 @@ public abstract class RecursiveWatcher {
             public void run() {
                 logger.log(Level.INFO, "File system actions (on watched folders) settled. Updating watches ...");
 
-                watchEventsOccurred();
-                fireListenerEvents();
+                FileChangeSet changes = takePendingChanges();
+                watchEventsOccurred(changes);
+                fireListenerEvents(changes);
             }
         }, settleDelay);
     }
 
-    private synchronized void fireListenerEvents() {
+    private synchronized void fireListenerEvents(FileChangeSet changes) {
         if (listener != null) {
-            logger.log(Level.INFO, "- Firing watch event (watchEventsOccurred) ...");
-            listener.watchEventsOccurred();
+            logger.log(Level.INFO, "- Firing watch event (watchEventsOccurred): " + changes);
+            listener.watchEventsOccurred(changes);
         }
     }
 
+    /**
+     * Records a single file system event so that it can be passed on to the
+     * {@link WatchListener} once file operations have settled.  Subclasses
+     * should call this from {@link #pollEvents()} for every event they see.
+     */
+    protected synchronized void recordEvent(WatchEvent.Kind<?> kind, Path path) {
+        pendingChanges.addEvent(kind, path);
+    }
+
+    private synchronized FileChangeSet takePendingChanges() {
+        FileChangeSet changes = pendingChanges;
+        pendingChanges = new FileChangeSet();
+        return changes;
+    }
+
     /**
      * Called before the {@link #start()} method. This method is
      * only called once.
@@ -189,7 +210,7 @@ public abstract class RecursiveWatcher {
      * to (re-)set watches on folders. This method is called
      * multiple times.
      */
-    protected abstract void watchEventsOccurred();
+    protected abstract void watchEventsOccurred(FileChangeSet changes);
 
     /**
      * Called after the {@link #stop()} method. This method is
@@ -198,6 +219,6 @@ public abstract class RecursiveWatcher {
     protected abstract void afterStop() throws IOException;
 
     public interface WatchListener {
-        void watchEventsOccurred();
+        void watchEventsOccurred(FileChangeSet changes);
     }
 }
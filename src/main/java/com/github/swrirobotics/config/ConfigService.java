@@ -33,13 +33,11 @@ package com.github.swrirobotics.config;
 import com.esotericsoftware.yamlbeans.YamlException;
 import com.esotericsoftware.yamlbeans.YamlReader;
 import com.esotericsoftware.yamlbeans.YamlWriter;
-import com.github.swrirobotics.bags.filesystem.BagScanner;
 import com.github.swrirobotics.support.web.Configuration;
+import org.apache.commons.lang3.SerializationUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.context.ApplicationContext;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.security.access.annotation.Secured;
 import org.springframework.stereotype.Service;
@@ -47,37 +45,181 @@ import org.springframework.stereotype.Service;
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
+/**
+ * Reads and writes the settings file.  The settings are read once and cached
+ * until the file's modification time or size changes or new settings are
+ * written through {@link #setConfiguration(Configuration)}, so it's cheap to
+ * call {@link #getConfiguration()} as often as necessary.
+ */
 @Service
 public class ConfigService {
-    @Autowired
-    private ApplicationContext myAC;
+    /**
+     * Notified whenever the cached settings are replaced, either because
+     * they were set through this service or because the settings file was
+     * modified.  Listeners are called on whichever thread noticed the change.
+     */
+    public interface ConfigurationListener {
+        void configurationChanged(Configuration oldConfig, Configuration newConfig);
+    }
 
-    private BagScanner myBagScanner = null;
+    private static class Snapshot {
+        final Configuration config;
+        final long lastModified;
+        final long length;
+
+        Snapshot(Configuration config, long lastModified, long length) {
+            this.config = config;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
 
     @Value(ApplicationConfig.SETTINGS_LOCATION)
     private String filename;
 
+    private volatile Snapshot mySnapshot = null;
+
+    private final Set<ConfigurationListener> myListeners = new CopyOnWriteArraySet<>();
+
     private final Logger myLogger = LoggerFactory.getLogger(ConfigService.class);
 
+    public void registerConfigurationListener(ConfigurationListener listener) {
+        myListeners.add(listener);
+    }
+
+    public void removeConfigurationListener(ConfigurationListener listener) {
+        myListeners.remove(listener);
+    }
+
+    /**
+     * Gets the current settings.  The returned object is shared by every
+     * caller and must not be modified; use {@link #getConfigurationCopy()} to
+     * get settings that can be changed and passed to
+     * {@link #setConfiguration(Configuration)}.
+     * @return The current settings.
+     */
     public Configuration getConfiguration() {
-        Configuration config = new Configuration();
-        URL fileUrl = null;
-        try {
-            fileUrl = new URL(filename);
-        } catch (MalformedURLException e) {
-            // This shouldn't happen...
+        File file = getSettingsFile();
+        Snapshot snapshot = mySnapshot;
+        if (snapshot == null ||
+                snapshot.lastModified != file.lastModified() ||
+                snapshot.length != file.length()) {
+            snapshot = reload(file);
+        }
+        return snapshot.config;
+    }
+
+    /**
+     * @return A copy of the current settings that may be freely modified.
+     */
+    public Configuration getConfigurationCopy() {
+        return SerializationUtils.clone(getConfiguration());
+    }
+
+    @Secured("ROLE_ADMIN")
+    public void setConfiguration(Configuration config) throws IOException {
+        File settingsFile = getSettingsFile();
+        myLogger.info("Creating directories leading to " + settingsFile.getPath());
+        myLogger.info("Parent: " + settingsFile.getParentFile().toString());
+        File parentDir = settingsFile.getParentFile();
+        if (!parentDir.exists() && !parentDir.mkdirs()) {
+            throw new IOException("Unable to create directory for config file.");
+        }
+
+        Configuration oldConfig = getConfiguration();
+
+        synchronized (this) {
+            YamlWriter writer = null;
+            try {
+                // If the config is being set from the web interface, the user can
+                // leave the JDBC password blank to indicate that it should not be
+                // changed.
+                writer = new YamlWriter(new FileWriter(settingsFile));
+                if (config.getJdbcPassword() == null || config.getJdbcPassword().isEmpty()) {
+                    config.setJdbcPassword(oldConfig.getJdbcPassword());
+                }
+                writer.write(config);
+            }
+            finally {
+                if (writer != null) {
+                    try {
+                        writer.close();
+                    }
+                    catch (YamlException e) {
+                        myLogger.error("Unable to write config file:", e);
+                    }
+                }
+            }
+        }
+
+        // The file could be modified again within the resolution of its
+        // timestamp, so don't rely on that to notice this change.
+        reload(settingsFile, true, oldConfig);
+    }
+
+    /**
+     * Reads the settings file if it has changed since the last time it was
+     * read and notifies listeners if it was.
+     * @param file The settings file.
+     * @return The current settings.
+     */
+    private Snapshot reload(File file) {
+        return reload(file, false, null);
+    }
+
+    /**
+     * Reads the settings file and notifies listeners if it was read.
+     * @param file The settings file.
+     * @param force If true, the file is read even if it doesn't look like it
+     *              has changed.
+     * @param previous The settings that listeners are told were replaced; if
+     *                 null, the settings that were cached before this.
+     * @return The current settings.
+     */
+    private Snapshot reload(File file, boolean force, Configuration previous) {
+        Snapshot oldSnapshot;
+        Snapshot newSnapshot;
+        synchronized (this) {
+            oldSnapshot = mySnapshot;
+            long lastModified = file.lastModified();
+            long length = file.length();
+            if (!force &&
+                    oldSnapshot != null &&
+                    oldSnapshot.lastModified == lastModified &&
+                    oldSnapshot.length == length) {
+                // Another thread already reloaded it.
+                return oldSnapshot;
+            }
+            newSnapshot = new Snapshot(readConfiguration(file), lastModified, length);
+            mySnapshot = newSnapshot;
         }
-        FileSystemResource settingsFile = new FileSystemResource(fileUrl.getFile());
 
-        if (!settingsFile.getFile().exists()) {
+        if (oldSnapshot != null) {
+            myLogger.info("Settings file has changed.");
+        }
+        Configuration oldConfig = previous;
+        if (oldConfig == null && oldSnapshot != null) {
+            oldConfig = oldSnapshot.config;
+        }
+        for (ConfigurationListener listener : myListeners) {
+            listener.configurationChanged(oldConfig, newSnapshot.config);
+        }
+        return newSnapshot;
+    }
+
+    private Configuration readConfiguration(File file) {
+        Configuration config = new Configuration();
+        if (!file.exists()) {
             myLogger.info("Config file does not exist; using default values.");
             return config;
         }
 
         YamlReader reader = null;
         try {
-            reader = new YamlReader(new FileReader(settingsFile.getFile()));
+            reader = new YamlReader(new FileReader(file));
 
             config = reader.read(Configuration.class);
         }
@@ -102,59 +244,13 @@ public class ConfigService {
         return config;
     }
 
-    @Secured("ROLE_ADMIN")
-    public void setConfiguration(Configuration config) throws IOException {
-        URL fileUrl;
+    private File getSettingsFile() {
+        URL fileUrl = null;
         try {
             fileUrl = new URL(filename);
         } catch (MalformedURLException e) {
-            myLogger.warn("Unable to access config file:", e);
-            throw new IOException(e);
             // This shouldn't happen...
         }
-
-        FileSystemResource settingsFile = new FileSystemResource(fileUrl.getFile());
-        myLogger.info("Creating directories leading to " + fileUrl.getFile());
-        myLogger.info("Parent: " + settingsFile.getFile().getParentFile().toString());
-        File parentDir = settingsFile.getFile().getParentFile();
-        if (!parentDir.exists() && !parentDir.mkdirs()) {
-            throw new IOException("Unable to create directory for config file.");
-        }
-
-        Configuration oldConfig = getConfiguration();
-
-        YamlWriter writer = null;
-        boolean bagPathChanged;
-        try {
-            // If the config is being set from the web interface, the user can
-            // leave the JDBC password blank to indicate that it should not be
-            // changed.
-            writer = new YamlWriter(new FileWriter(settingsFile.getFile()));
-            if (config.getJdbcPassword() == null || config.getJdbcPassword().isEmpty()) {
-                config.setJdbcPassword(oldConfig.getJdbcPassword());
-            }
-            bagPathChanged = !oldConfig.getBagPath().equals(config.getBagPath());
-            writer.write(config);
-        }
-        finally {
-            if (writer != null) {
-                try {
-                    writer.close();
-                }
-                catch (YamlException e) {
-                    myLogger.error("Unable to write config file:", e);
-                }
-            }
-        }
-
-        if (bagPathChanged) {
-            // If the bag path has changed, we should tell the scanner to rescan.
-            if (myBagScanner == null) {
-                // We can't autowire this because it would create a circular
-                // dependency.
-                myBagScanner = myAC.getBean(BagScanner.class);
-            }
-            myBagScanner.reset();
-        }
+        return new FileSystemResource(fileUrl.getFile()).getFile();
     }
 }
@@ -86,6 +86,9 @@ public class JpaConfig implements TransactionManagementConfigurer {
         config.addDataSourceProperty("initializationFailTimeout", "10000");
 
         if (properties.getDriver().equals("org.postgresql.Driver")) {
+            // Lets the driver turn batches of inserts into multi-row inserts,
+            // which is much faster for bulk-inserting GPS positions.
+            config.addDataSourceProperty("reWriteBatchedInserts", "true");
             System.setProperty("hibernate.dialect", "org.hibernate.spatial.dialect.postgis.PostgisDialect");
 
             return new HikariDataSource(config);
@@ -48,15 +48,10 @@ import java.util.Set;
 @Entity
 @Table(name="bags")
 @JsonIdentityInfo(generator = ObjectIdGenerators.PropertyGenerator.class, property = "id")
-@NamedNativeQuery(name = "Bag.countBagPaths",
-                  query = "SELECT COUNT(b.path) AS count, c.path AS path " +
-                          "FROM bags b " +
-                          "RIGHT JOIN (SELECT a.path FROM bags a GROUP BY a.path) c " +
-                          "  ON b.path LIKE CONCAT(c.path, '%') AND " +
-                          "    LOWER(b.filename) LIKE CONCAT('%', LOWER(:text), '%') " +
-                          "GROUP BY c.path",
-                  resultClass = BagCount.class)
 public class Bag implements Serializable {
+    /** The maximum length of a bag's location name; matches the database column. */
+    public static final int MAX_LOCATION_LENGTH = 100;
+
     private Long id;
 
     // All of these fields are inherent properties of or are extracted from the bag
@@ -288,7 +283,7 @@ public class Bag implements Serializable {
         this.md5sum = md5sum;
     }
 
-    @Column(length = 100)
+    @Column(length = MAX_LOCATION_LENGTH)
     public String getLocation() {
         return location;
     }
@@ -303,7 +298,7 @@ public class Bag implements Serializable {
         return latitudeDeg;
     }
 
-    private void setLatitudeDeg(Double latitudeDeg) {
+    public void setLatitudeDeg(Double latitudeDeg) {
         this.latitudeDeg = latitudeDeg;
     }
 
@@ -322,7 +317,7 @@ public class Bag implements Serializable {
         return longitudeDeg;
     }
 
-    private void setLongitudeDeg(Double longitudeDeg) {
+    public void setLongitudeDeg(Double longitudeDeg) {
         this.longitudeDeg = longitudeDeg;
     }
 
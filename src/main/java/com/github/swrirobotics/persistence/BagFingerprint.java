@@ -0,0 +1,113 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.persistence;
+
+import javax.persistence.*;
+import java.io.Serializable;
+
+/**
+ * Maps a file's identity on disk to the MD5 sum that was calculated for it the
+ * last time it was scanned.  A file is identified by its device and inode
+ * numbers; its size and modification time are used to tell whether its
+ * contents might have changed since then.  This lets the scanner recognize
+ * bags that are unchanged or have been moved or renamed without having to
+ * read the entire file again.
+ */
+@Entity
+@Table(name="bag_fingerprints", indexes = {@Index(columnList = "md5sum")})
+@IdClass(BagFingerprintKey.class)
+public class BagFingerprint implements Serializable {
+    private static final long serialVersionUID = -4130471880385745893L;
+    @Id
+    private Long device;
+    @Id
+    private Long inode;
+    @Column(nullable = false)
+    private Long size;
+    @Column(nullable = false)
+    private Long modifiedTime; // Last modification time, in milliseconds since the epoch
+    @Column(length = 32, nullable = false)
+    private String md5sum;
+
+    public Long getDevice() {
+        return device;
+    }
+
+    public void setDevice(Long device) {
+        this.device = device;
+    }
+
+    public Long getInode() {
+        return inode;
+    }
+
+    public void setInode(Long inode) {
+        this.inode = inode;
+    }
+
+    public Long getSize() {
+        return size;
+    }
+
+    public void setSize(Long size) {
+        this.size = size;
+    }
+
+    public Long getModifiedTime() {
+        return modifiedTime;
+    }
+
+    public void setModifiedTime(Long modifiedTime) {
+        this.modifiedTime = modifiedTime;
+    }
+
+    public String getMd5sum() {
+        return md5sum;
+    }
+
+    public void setMd5sum(String md5sum) {
+        this.md5sum = md5sum;
+    }
+
+    /**
+     * Checks whether another fingerprint describes the same version of the
+     * same file; i.e., it has the same device, inode, size, and modification time.
+     * @param other The fingerprint to compare against.
+     * @return True if both fingerprints describe the same file contents.
+     */
+    public boolean matches(BagFingerprint other) {
+        return other != null &&
+               device.equals(other.device) &&
+               inode.equals(other.inode) &&
+               size.equals(other.size) &&
+               modifiedTime.equals(other.modifiedTime);
+    }
+}
@@ -56,6 +56,9 @@ public class BagPosition {
 
     private Timestamp positionTime;
 
+    // The coarsest level of detail this position is needed for; see db.changelog-2.2.yaml
+    private Integer detailLevel = 0;
+
     public Long getId() {
         return id;
     }
@@ -98,4 +101,12 @@ public class BagPosition {
     public void setPositionTime(Timestamp positionTime) {
         this.positionTime = positionTime;
     }
+
+    public Integer getDetailLevel() {
+        return detailLevel;
+    }
+
+    public void setDetailLevel(Integer detailLevel) {
+        this.detailLevel = detailLevel;
+    }
 }
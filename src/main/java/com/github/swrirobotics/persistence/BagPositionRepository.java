@@ -32,6 +32,8 @@ package com.github.swrirobotics.persistence;
 
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.Collection;
@@ -41,5 +43,19 @@ import java.util.List;
 public interface BagPositionRepository extends JpaRepository<BagPosition, Long>, JpaSpecificationExecutor<BagPosition> {
     List<BagPosition> findByBagIdOrderByPositionTimeAsc(Long bagId);
 
+    long countByBagId(Long bagId);
+
     List<BagPosition> findByBagIdInOrderByPositionTimeAsc(Collection<Long> bags);
+
+    List<BagPosition> findByBagIdInAndDetailLevelLessThanEqualOrderByPositionTimeAsc(Collection<Long> bags,
+                                                                                    Integer detailLevel);
+
+    /**
+     * Counts how many positions there are at each level of detail.
+     * @param bags The bags to count positions for.
+     * @return A list of [detail level, count] pairs.
+     */
+    @Query("select p.detailLevel, count(p) from BagPosition p where p.bag.id in :bags " +
+           "group by p.detailLevel order by p.detailLevel asc")
+    List<Object[]> countByDetailLevel(@Param("bags") Collection<Long> bags);
 }
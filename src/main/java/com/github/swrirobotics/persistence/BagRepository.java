@@ -30,20 +30,167 @@
 
 package com.github.swrirobotics.persistence;
 
+import com.google.common.collect.AbstractIterator;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.persistence.QueryHint;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface BagRepository extends JpaRepository<Bag, Long>, JpaSpecificationExecutor<Bag> {
-    Long countByPathStartsWith(String path);
     List<Bag> findByPathAndFilename(String path, String filename);
-    List<Bag> findByPath(String path);
+    List<Bag> findByPathStartsWith(String path);
     List<Bag> findByMissing(boolean isMissing);
+    @Query("select b.id from Bag b where b.missing = true")
+    List<Long> findMissingIds();
+    List<Bag> findByIdBetween(Long firstId, Long lastId);
     Bag findByMd5sum(String md5sum);
+    List<BagPathInfo> findPathInfoByPathAndFilename(String path, String filename);
+    List<BagPathInfo> findPathInfoByPathStartsWith(String path);
+    List<BagPathInfo> findPathInfoByIdIn(Collection<Long> ids);
+
+    /**
+     * Streams the path information for every bag.  This must be called
+     * inside a transaction, and the stream must be closed when it's done.
+     */
+    @QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "1000"))
+    @Query("select b.id as id, b.path as path, b.filename as filename, " +
+           "b.md5sum as md5sum, b.missing as missing from Bag b")
+    Stream<BagPathInfo> streamAllPathInfo();
     @Query("select distinct b.path from Bag b")
     List<String> getDisinctPaths();
+    /**
+     * Finds bags in a range of IDs that are missing any of the selected
+     * fields and that might be able to provide them.  Bags that already have
+     * every selected field populated, that have already been checked for
+     * them, or whose files are missing are not returned, so they never need
+     * to be loaded or have their files read.
+     * <ul>
+     *     <li>A bag's GPS path has been checked once hasPath is not null.</li>
+     *     <li>A bag that has been checked and has no GPS path can't have a
+     *         coordinate, either.</li>
+     *     <li>A bag's vehicle name is set to an empty string if it has been
+     *         checked and doesn't have one.  Note that this is different from
+     *         a null vehicle name, which means it hasn't been checked yet, even
+     *         though both are shown to users as a blank vehicle name; the
+     *         vehicle name updater treats both of them as missing and checks
+     *         again.</li>
+     *     <li>Only bags that recorded one of the metadata topics can have tags
+     *         read from them.</li>
+     * </ul>
+     * @param metadataTopics The configured metadata topics; if there are none,
+     *                       no bags are returned for missing tags.
+     */
+    default List<Bag> findByIdBetweenMissingFields(Long firstId,
+                                                   Long lastId,
+                                                   boolean coordinate,
+                                                   boolean gpsPath,
+                                                   boolean vehicleName,
+                                                   boolean tags,
+                                                   Collection<String> metadataTopics) {
+        // An empty "in" list isn't valid SQL, so use a topic name that can't
+        // match anything if there are no topics.
+        return findByIdBetweenMissingFieldsQuery(
+                firstId, lastId, coordinate, gpsPath, vehicleName, tags,
+                metadataTopics.isEmpty() ? Collections.singletonList("") : metadataTopics);
+    }
+    /**
+     * Used by {@link #findByIdBetweenMissingFields}; metadataTopics must not be empty.
+     */
+    @Query("select b from Bag b where b.id between :firstId and :lastId and b.missing = false and (" +
+           "(:coordinate = true and b.coordinate is null and (b.hasPath is null or b.hasPath = true)) or " +
+           "(:gpsPath = true and b.hasPath is null) or " +
+           "(:vehicleName = true and b.vehicle is null) or " +
+           "(:tags = true and b.tags is empty and exists (" +
+           "select t from Topic t where t.bag = b and t.topicName in :metadataTopics)))")
+    List<Bag> findByIdBetweenMissingFieldsQuery(@Param("firstId") Long firstId,
+                                                @Param("lastId") Long lastId,
+                                                @Param("coordinate") boolean coordinate,
+                                                @Param("gpsPath") boolean gpsPath,
+                                                @Param("vehicleName") boolean vehicleName,
+                                                @Param("tags") boolean tags,
+                                                @Param("metadataTopics") Collection<String> metadataTopics);
+    @Query("select b.md5sum from Bag b group by b.md5sum having count(b) > 1")
+    List<String> findDuplicateMd5sums();
+
+    /**
+     * Finds every bag with one of the given MD5 sums except for the one with
+     * the lowest ID for each sum.
+     */
+    @Query("select b.id from Bag b where b.md5sum in :md5sums and b.id > " +
+           "(select min(o.id) from Bag o where o.md5sum = b.md5sum)")
+    List<Long> findDuplicateIds(@Param("md5sums") Collection<String> md5sums);
+    @Query("select b.id from Bag b where b.id > :afterId order by b.id")
+    List<Long> findIdsAfter(@Param("afterId") long afterId, Pageable pageable);
+
+    /**
+     * Finds bags that have a coordinate but no location name, in ascending
+     * order of ID, starting after the given ID.
+     */
+    @Query("select b.id as id, b.latitudeDeg as latitudeDeg, b.longitudeDeg as longitudeDeg " +
+           "from Bag b where b.id > :afterId and b.coordinate is not null and " +
+           "(b.location is null or b.location = '') order by b.id")
+    List<BagCoordinateInfo> findUnlocatedAfter(@Param("afterId") long afterId, Pageable pageable);
+
+    /**
+     * Pages through the IDs of every bag in ascending order without loading
+     * any bags.  Each page is fetched with a keyset query only when it's
+     * needed, so iterating over them uses the same amount of memory no
+     * matter how many bags there are.
+     * @param pageSize The maximum number of IDs in each page.
+     * @return The pages of bag IDs.
+     */
+    default Iterable<List<Long>> findIdPages(final int pageSize) {
+        return () -> new AbstractIterator<List<Long>>() {
+            private long myLastId = Long.MIN_VALUE;
+
+            @Override
+            protected List<Long> computeNext() {
+                List<Long> ids = findIdsAfter(myLastId, PageRequest.of(0, pageSize));
+                if (ids.isEmpty()) {
+                    return endOfData();
+                }
+                myLastId = ids.get(ids.size() - 1);
+                return ids;
+            }
+        };
+    }
+
+    /**
+     * Sets a bag's location if it doesn't already have one, so that a location
+     * that was looked up in the background won't overwrite one a user entered.
+     * @return The number of bags that were updated.
+     */
+    @Modifying
+    @Transactional
+    @Query("update Bag b set b.location = :location " +
+           "where b.id = :bagId and (b.location is null or b.location = '')")
+    int setLocationIfEmpty(@Param("bagId") Long bagId, @Param("location") String location);
+
+    @Modifying
+    @Transactional
+    @Query("update Bag b set b.missing = :missing where b.id in :bagIds")
+    int setMissing(@Param("bagIds") Collection<Long> bagIds, @Param("missing") boolean missing);
+
+    /**
+     * Deletes bags without loading them first.  Their topics, tags, and other
+     * dependent rows are removed by the database's cascading deletes.
+     * @return The number of bags that were deleted.
+     */
+    @Modifying
+    @Transactional
+    @Query("delete from Bag b where b.id in :bagIds")
+    int deleteBagsById(@Param("bagIds") Collection<Long> bagIds);
 }
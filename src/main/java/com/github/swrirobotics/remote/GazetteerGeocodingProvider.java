@@ -0,0 +1,259 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.remote;
+
+import com.github.swrirobotics.config.ConfigService;
+import com.github.swrirobotics.support.web.Configuration;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Looks up locations in a local gazetteer file so that bags can be geocoded
+ * without network access.  Two formats are supported:
+ * <ul>
+ *     <li>GeoNames dumps, such as cities500.txt from
+ *     https://download.geonames.org/export/dump/.  These are tab-separated.
+ *     If admin1CodesASCII.txt is in the same directory, it's used to name
+ *     each place's state or province.</li>
+ *     <li>Comma-separated files where each line is "name,latitude,longitude";
+ *     any further columns, such as a region or country, are appended to the
+ *     name.</li>
+ * </ul>
+ * The whole file is loaded into a {@link PlaceKdTree} when the gazetteer path
+ * is configured; if the path is changed later, the new file is loaded in the
+ * background and the old one is used until it's ready.
+ */
+@Component
+@Order(1)
+public class GazetteerGeocodingProvider implements GeocodingProvider, ConfigService.ConfigurationListener {
+    @Autowired
+    private ConfigService myConfigService;
+
+    // Don't name a location after a place that's farther away than this.
+    private static final double MAX_DISTANCE_KM = 100.0;
+    private static final String ADMIN1_CODES_FILE = "admin1CodesASCII.txt";
+
+    // GeoNames column indices
+    private static final int GEONAMES_NAME = 1;
+    private static final int GEONAMES_LATITUDE = 4;
+    private static final int GEONAMES_LONGITUDE = 5;
+    private static final int GEONAMES_COUNTRY = 8;
+    private static final int GEONAMES_ADMIN1 = 10;
+
+    private volatile PlaceKdTree myTree = null;
+    private String myLoadedPath = null;
+    private final ExecutorService myLoader = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("gazetteer-loader-%d").setDaemon(true).build());
+
+    private static final Logger myLogger = LoggerFactory.getLogger(GazetteerGeocodingProvider.class);
+
+    @PostConstruct
+    public void initialize() {
+        myConfigService.registerConfigurationListener(this);
+        loadGazetteer(myConfigService.getConfiguration().getGazetteerPath());
+    }
+
+    @PreDestroy
+    public void destroy() {
+        myLoader.shutdownNow();
+    }
+
+    @Override
+    public void configurationChanged(Configuration oldConfig, Configuration newConfig) {
+        // Large gazetteers can take a while to load, and the old one can still
+        // be used until then.
+        String path = newConfig.getGazetteerPath();
+        myLoader.execute(() -> loadGazetteer(path));
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return myTree != null;
+    }
+
+    @Override
+    public boolean isLocal() {
+        return true;
+    }
+
+    @Override
+    public String getLocationName(double latitudeDeg, double longitudeDeg) {
+        PlaceKdTree tree = myTree;
+        return tree == null ? null : tree.findNearest(latitudeDeg, longitudeDeg, MAX_DISTANCE_KM);
+    }
+
+    /**
+     * Loads a gazetteer and replaces the current one with it.  The current
+     * one is kept in use until the new one has been loaded, and if it can't
+     * be loaded, it will be tried again the next time the configuration
+     * changes.
+     * @param path The path to the gazetteer; if it's empty, no gazetteer is used.
+     */
+    private synchronized void loadGazetteer(String path) {
+        if (Objects.equals(path, myLoadedPath)) {
+            return;
+        }
+        if (path == null || path.isEmpty()) {
+            myTree = null;
+            myLoadedPath = path;
+            return;
+        }
+
+        long startTime = System.currentTimeMillis();
+        PlaceKdTree tree;
+        try {
+            tree = readGazetteer(new File(path));
+        }
+        catch (IOException e) {
+            myLogger.error("Unable to read gazetteer " + path + ":", e);
+            return;
+        }
+
+        myTree = tree;
+        myLoadedPath = path;
+        myLogger.info("Loaded " + tree.size() + " places from " + path + " in " +
+                      (System.currentTimeMillis() - startTime) + " ms.");
+    }
+
+    private PlaceKdTree readGazetteer(File file) throws IOException {
+        List<String> names = Lists.newArrayList();
+        double[] lats = new double[1024];
+        double[] lons = new double[1024];
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            Map<String, String> admin1Names = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String name;
+                double lat;
+                double lon;
+                try {
+                    if (line.indexOf('\t') >= 0) {
+                        if (admin1Names == null) {
+                            admin1Names = loadAdmin1Names(new File(file.getAbsoluteFile().getParentFile(),
+                                                                   ADMIN1_CODES_FILE));
+                        }
+                        String[] fields = line.split("\t", -1);
+                        name = formatGeoNamesPlace(fields, admin1Names);
+                        lat = Double.parseDouble(fields[GEONAMES_LATITUDE]);
+                        lon = Double.parseDouble(fields[GEONAMES_LONGITUDE]);
+                    }
+                    else {
+                        String[] fields = line.split(",", -1);
+                        lat = Double.parseDouble(fields[1].trim());
+                        lon = Double.parseDouble(fields[2].trim());
+                        StringBuilder builder = new StringBuilder(fields[0].trim());
+                        for (int i = 3; i < fields.length; i++) {
+                            if (!fields[i].trim().isEmpty()) {
+                                builder.append(", ").append(fields[i].trim());
+                            }
+                        }
+                        name = builder.toString();
+                    }
+                }
+                catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    // Probably a header line
+                    myLogger.debug("Skipping gazetteer line: " + line);
+                    continue;
+                }
+
+                int index = names.size();
+                if (index == lats.length) {
+                    lats = Arrays.copyOf(lats, index * 2);
+                    lons = Arrays.copyOf(lons, index * 2);
+                }
+                names.add(name);
+                lats[index] = lat;
+                lons[index] = lon;
+            }
+        }
+
+        return new PlaceKdTree(names, lats, lons);
+    }
+
+    private static String formatGeoNamesPlace(String[] fields, Map<String, String> admin1Names) {
+        String country = fields[GEONAMES_COUNTRY];
+        String admin1 = fields[GEONAMES_ADMIN1];
+        StringBuilder name = new StringBuilder(fields[GEONAMES_NAME]);
+        if (!admin1.isEmpty()) {
+            name.append(", ").append(admin1Names.getOrDefault(country + "." + admin1, admin1));
+        }
+        if (!country.isEmpty()) {
+            name.append(", ").append(country);
+        }
+        return name.toString();
+    }
+
+    /**
+     * Reads the names of first-level administrative divisions from a GeoNames
+     * admin1CodesASCII.txt file, if it exists.
+     * @return A map of codes such as "US.TX" to names such as "Texas".
+     */
+    private Map<String, String> loadAdmin1Names(File file) throws IOException {
+        Map<String, String> admin1Names = Maps.newHashMap();
+        if (!file.exists()) {
+            return admin1Names;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length >= 2) {
+                    admin1Names.put(fields[0], fields[1]);
+                }
+            }
+        }
+        myLogger.debug("Loaded " + admin1Names.size() + " administrative division names.");
+        return admin1Names;
+    }
+}
@@ -0,0 +1,58 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.remote;
+
+/**
+ * A source of location names for GPS coordinates.  {@link GeocodingService}
+ * uses the first provider that is available, in the order given by their
+ * {@link org.springframework.core.annotation.Order} annotations.
+ */
+public interface GeocodingProvider {
+    /**
+     * @return True if this provider has been configured and can look up locations.
+     */
+    boolean isAvailable();
+
+    /**
+     * @return True if this provider answers queries without any network
+     * requests.  Results from local providers aren't rate limited or cached.
+     */
+    boolean isLocal();
+
+    /**
+     * Finds the name of the location nearest to a coordinate.
+     * @param latitudeDeg The latitude, in degrees.
+     * @param longitudeDeg The longitude, in degrees.
+     * @return The location's name, or null if there isn't anything nearby.
+     * @throws Exception If the lookup failed and may succeed if it is retried.
+     */
+    String getLocationName(double latitudeDeg, double longitudeDeg) throws Exception;
+}
@@ -30,50 +30,333 @@
 
 package com.github.swrirobotics.remote;
 
+import com.github.swrirobotics.bags.BagsChangedEvent;
 import com.github.swrirobotics.config.ConfigService;
-import com.google.maps.GeoApiContext;
-import com.google.maps.GeocodingApi;
-import com.google.maps.model.GeocodingResult;
-import com.google.maps.model.LatLng;
+import com.github.swrirobotics.persistence.Bag;
+import com.github.swrirobotics.persistence.BagCoordinateInfo;
+import com.github.swrirobotics.persistence.BagRepository;
+import com.github.swrirobotics.persistence.GeocodeCacheEntry;
+import com.github.swrirobotics.persistence.GeocodeCacheRepository;
+import com.github.swrirobotics.support.web.Configuration;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up location names for GPS coordinates using the first available
+ * {@link GeocodingProvider}.  Results from remote providers are cached in the
+ * database by geohash cell, so bags recorded near each other only need one
+ * request to the geocoding API.  New bags can be geocoded in the background
+ * through {@link #requestLocationName(long, double, double)}; requests are
+ * rate limited and retried if they fail.  Since requests are only kept in
+ * memory, bags that still have no location are periodically requested again
+ * by {@link #requeueUnlocatedBags()}.
+ */
 @Service
-public class GeocodingService {
+public class GeocodingService implements ConfigService.ConfigurationListener {
     @Autowired
     private ConfigService myConfigService;
+    @Autowired
+    private GeocodeCacheRepository myCacheRepository;
+    @Autowired
+    private BagRepository myBagRepository;
+    @Autowired
+    private ApplicationEventPublisher myEventPublisher;
+    @Autowired
+    private List<GeocodingProvider> myProviders;
+
+    // Seven characters is a cell that's roughly 150 meters across.
+    private static final int GEOHASH_PRECISION = 7;
+    private static final int MEMORY_CACHE_SIZE = 10000;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long FIRST_RETRY_DELAY_MS = 2000;
+    private static final int DEFAULT_THREADS = 4;
+    private static final double DEFAULT_REQUESTS_PER_SECOND = 10.0;
+    private static final String UNKNOWN_LOCATION = "(Unknown)";
+    // Bags that still need locations are looked for this often, and at most
+    // this many are queued at once.
+    private static final long REQUEUE_INTERVAL_MS = 10 * 60 * 1000;
+    private static final long REQUEUE_INITIAL_DELAY_MS = 60 * 1000;
+    private static final int REQUEUE_PAGE_SIZE = 1000;
+    private static final int MAX_QUEUED_BAGS = 10000;
+
+    private final Cache<String, String> myMemoryCache =
+            CacheBuilder.newBuilder().maximumSize(MEMORY_CACHE_SIZE).build();
+    private final RateLimiter myRateLimiter = RateLimiter.create(DEFAULT_REQUESTS_PER_SECOND);
+    private ScheduledExecutorService myExecutor = null;
+    // Bags whose locations are queued or being retried
+    private final Set<Long> myQueuedBagIds = Sets.newConcurrentHashSet();
+    // The last bag ID that was checked by requeueUnlocatedBags
+    private long myRequeueCursor = Long.MIN_VALUE;
 
     private static final Logger myLogger = LoggerFactory.getLogger(GeocodingService.class);
 
+    @PostConstruct
+    public void initialize() {
+        Configuration config = myConfigService.getConfiguration();
+        Integer threads = config.getGeocodeThreads();
+        myExecutor = new ScheduledThreadPoolExecutor(
+                threads != null && threads > 0 ? threads : DEFAULT_THREADS,
+                new ThreadFactoryBuilder().setNameFormat("geocoder-%d").setDaemon(true).build());
+        updateRateLimit(config);
+        myConfigService.registerConfigurationListener(this);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        myExecutor.shutdownNow();
+    }
+
+    @Override
+    public void configurationChanged(Configuration oldConfig, Configuration newConfig) {
+        updateRateLimit(newConfig);
+    }
+
+    private void updateRateLimit(Configuration config) {
+        Double rate = config.getGeocodeRequestsPerSecond();
+        myRateLimiter.setRate(rate != null && rate > 0 ? rate : DEFAULT_REQUESTS_PER_SECOND);
+    }
+
+    /**
+     * Looks up the name of a location, sending a request to the geocoding
+     * API if it isn't already cached.
+     * @param latitudeDeg The latitude, in degrees.
+     * @param longitudeDeg The longitude, in degrees.
+     * @return The location's name; "(Unknown)" if it couldn't be found; or
+     * null if no geocoding provider is available.
+     */
     public String getLocationName(double latitudeDeg, double longitudeDeg) {
         myLogger.trace("Reverse geocoding lat/long (" + latitudeDeg + ", " + longitudeDeg + ")");
-        String key = myConfigService.getConfiguration().getGoogleApiKey();
-        if (key == null || key.isEmpty()) {
-            myLogger.warn("Google API Key has not been set.");
+        GeocodingProvider provider = getProvider();
+        if (provider == null) {
+            myLogger.warn("Google API Key or gazetteer has not been set.");
             return null;
         }
 
-        GeoApiContext context = new GeoApiContext().setApiKey(key);
-        String name = "(Unknown)";
         try {
-            GeocodingResult[] results = GeocodingApi
-                    .reverseGeocode(context, new LatLng(latitudeDeg, longitudeDeg)).await();
-            myLogger.trace("Number of results: " + results.length);
-            // There may be multiple results with sequentially less data in each;
-            // just return the first one, since it should have the most info.
-            for (GeocodingResult result : results) {
-                myLogger.debug("Location for (" + latitudeDeg + ", " +
-                               longitudeDeg + "): " + result.formattedAddress);
-                return result.formattedAddress;
+            if (provider.isLocal()) {
+                return lookUpLocationName(provider, latitudeDeg, longitudeDeg);
+            }
+            String name = getCachedLocationName(latitudeDeg, longitudeDeg);
+            if (name != null) {
+                return name;
             }
+            return lookUpLocationName(provider, latitudeDeg, longitudeDeg);
         }
         catch (Exception e) {
             myLogger.error("Reverse geocoding failed for (" + latitudeDeg +
                            ", " + longitudeDeg + "):", e);
         }
 
+        return UNKNOWN_LOCATION;
+    }
+
+    /**
+     * Looks up the name of a location without sending any network requests,
+     * either from a local provider or from the cache.
+     * @param latitudeDeg The latitude, in degrees.
+     * @param longitudeDeg The longitude, in degrees.
+     * @return The location's name, or null if it can't be found without
+     * sending a request.
+     */
+    public String getLocationNameWithoutWaiting(double latitudeDeg, double longitudeDeg) {
+        GeocodingProvider provider = getProvider();
+        if (provider != null && provider.isLocal()) {
+            try {
+                return lookUpLocationName(provider, latitudeDeg, longitudeDeg);
+            }
+            catch (Exception e) {
+                myLogger.error("Reverse geocoding failed for (" + latitudeDeg +
+                               ", " + longitudeDeg + "):", e);
+                return null;
+            }
+        }
+        return getCachedLocationName(latitudeDeg, longitudeDeg);
+    }
+
+    private String getCachedLocationName(double latitudeDeg, double longitudeDeg) {
+        String geohash = Geohash.encode(latitudeDeg, longitudeDeg, GEOHASH_PRECISION);
+        String name = myMemoryCache.getIfPresent(geohash);
+        if (name == null) {
+            name = myCacheRepository.findById(geohash).map(GeocodeCacheEntry::getLocation).orElse(null);
+            if (name != null) {
+                // Entries cached by older versions may be longer than a bag's location column.
+                name = truncateLocationName(name);
+                myMemoryCache.put(geohash, name);
+            }
+        }
         return name;
     }
+
+    /**
+     * Looks up the name of a bag's location in the background and sets it on
+     * the bag once it's found, unless the bag has been given a location in
+     * the meantime.
+     * @param bagId The bag to update.
+     * @param latitudeDeg The bag's latitude, in degrees.
+     * @param longitudeDeg The bag's longitude, in degrees.
+     */
+    public void requestLocationName(long bagId, double latitudeDeg, double longitudeDeg) {
+        if (getProvider() == null || !myQueuedBagIds.add(bagId)) {
+            return;
+        }
+        try {
+            myExecutor.execute(() -> geocodeBag(bagId, latitudeDeg, longitudeDeg, 1));
+        }
+        catch (RejectedExecutionException e) {
+            // Shutting down; the bag will be found again after a restart.
+            myQueuedBagIds.remove(bagId);
+        }
+    }
+
+    /**
+     * Requests locations for bags that have a coordinate but no location.
+     * Requests only live in memory, so this picks up any that were lost when
+     * the application stopped, along with bags that were inserted while no
+     * geocoding provider was available.  Bags are checked a page at a time
+     * in order of ID, continuing where the last run left off, and no more are
+     * queued once {@link #MAX_QUEUED_BAGS} are waiting.
+     */
+    @Scheduled(initialDelay = REQUEUE_INITIAL_DELAY_MS, fixedDelay = REQUEUE_INTERVAL_MS)
+    public synchronized void requeueUnlocatedBags() {
+        if (getProvider() == null) {
+            return;
+        }
+        int requeued = 0;
+        while (myQueuedBagIds.size() < MAX_QUEUED_BAGS) {
+            List<BagCoordinateInfo> bags = myBagRepository.findUnlocatedAfter(
+                    myRequeueCursor, PageRequest.of(0, REQUEUE_PAGE_SIZE));
+            if (bags.isEmpty()) {
+                // Start over from the beginning next time.
+                myRequeueCursor = Long.MIN_VALUE;
+                break;
+            }
+            for (BagCoordinateInfo bag : bags) {
+                if (myQueuedBagIds.size() >= MAX_QUEUED_BAGS) {
+                    break;
+                }
+                myRequeueCursor = bag.getId();
+                if (bag.getLatitudeDeg() != null && bag.getLongitudeDeg() != null &&
+                        !myQueuedBagIds.contains(bag.getId())) {
+                    requestLocationName(bag.getId(), bag.getLatitudeDeg(), bag.getLongitudeDeg());
+                    requeued++;
+                }
+            }
+        }
+        if (requeued > 0) {
+            myLogger.info("Requested locations for " + requeued + " bags that didn't have one.");
+        }
+    }
+
+    private void geocodeBag(long bagId, double latitudeDeg, double longitudeDeg, int attempt) {
+        try {
+            GeocodingProvider provider = getProvider();
+            if (provider == null) {
+                return;
+            }
+            String name = provider.isLocal() ? null : getCachedLocationName(latitudeDeg, longitudeDeg);
+            if (name == null) {
+                name = lookUpLocationName(provider, latitudeDeg, longitudeDeg);
+            }
+            if (name != null && myBagRepository.setLocationIfEmpty(bagId, name) > 0) {
+                myEventPublisher.publishEvent(new BagsChangedEvent(bagId));
+            }
+            myQueuedBagIds.remove(bagId);
+        }
+        catch (Exception e) {
+            if (attempt < MAX_ATTEMPTS) {
+                long delayMs = FIRST_RETRY_DELAY_MS << (attempt - 1);
+                myLogger.warn("Reverse geocoding failed for bag " + bagId + "; retrying in " +
+                              delayMs + " ms: " + e.getLocalizedMessage());
+                myExecutor.schedule(() -> geocodeBag(bagId, latitudeDeg, longitudeDeg, attempt + 1),
+                                    delayMs, TimeUnit.MILLISECONDS);
+            }
+            else {
+                myQueuedBagIds.remove(bagId);
+                myLogger.error("Reverse geocoding failed for bag " + bagId + ":", e);
+            }
+        }
+    }
+
+    /**
+     * Looks up a location with a provider.  Results from remote providers are
+     * rate limited and cached.
+     * @return The location's name, or "(Unknown)" if it couldn't be found.
+     * @throws Exception If the lookup failed.
+     */
+    private String lookUpLocationName(GeocodingProvider provider,
+                                      double latitudeDeg, double longitudeDeg) throws Exception {
+        if (!provider.isLocal()) {
+            myRateLimiter.acquire();
+        }
+        String name = provider.getLocationName(latitudeDeg, longitudeDeg);
+        if (name == null) {
+            name = UNKNOWN_LOCATION;
+        }
+        else {
+            name = truncateLocationName(name);
+        }
+        myLogger.debug("Location for (" + latitudeDeg + ", " + longitudeDeg + "): " + name);
+        if (provider.isLocal()) {
+            return name;
+        }
+
+        String geohash = Geohash.encode(latitudeDeg, longitudeDeg, GEOHASH_PRECISION);
+        myMemoryCache.put(geohash, name);
+        GeocodeCacheEntry entry = new GeocodeCacheEntry();
+        entry.setGeohash(geohash);
+        entry.setLocation(name);
+        entry.setCreatedOn(new Timestamp(System.currentTimeMillis()));
+        try {
+            myCacheRepository.save(entry);
+        }
+        catch (DataAccessException e) {
+            // Another thread may have looked up the same cell at the same time.
+            myLogger.debug("Unable to cache location for " + geohash + ": " + e.getLocalizedMessage());
+        }
+
+        return name;
+    }
+
+    /**
+     * Shortens a location name so that it fits in a bag's location column.
+     */
+    private static String truncateLocationName(String name) {
+        if (name.length() > Bag.MAX_LOCATION_LENGTH) {
+            return name.substring(0, Bag.MAX_LOCATION_LENGTH);
+        }
+        return name;
+    }
+
+    /**
+     * @return The first provider that is available, or null if none are.
+     */
+    private GeocodingProvider getProvider() {
+        for (GeocodingProvider provider : myProviders) {
+            if (provider.isAvailable()) {
+                return provider;
+            }
+        }
+        return null;
+    }
 }
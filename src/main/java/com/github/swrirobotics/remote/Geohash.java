@@ -0,0 +1,95 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.remote;
+
+/**
+ * Encodes coordinates as geohashes.  A geohash identifies a rectangular cell;
+ * each additional character divides the cell into 32 smaller ones, and
+ * coordinates that are close together usually share a long prefix.
+ */
+public final class Geohash {
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    private Geohash() {
+    }
+
+    /**
+     * Encodes a coordinate as a geohash.
+     * @param latitudeDeg The latitude, in degrees.
+     * @param longitudeDeg The longitude, in degrees.
+     * @param precision The number of characters in the geohash.
+     * @return The geohash of the cell containing the coordinate.
+     */
+    public static String encode(double latitudeDeg, double longitudeDeg, int precision) {
+        double minLat = -90.0, maxLat = 90.0;
+        double minLon = -180.0, maxLon = 180.0;
+        StringBuilder hash = new StringBuilder(precision);
+        boolean isLonBit = true;
+        int bit = 0;
+        int ch = 0;
+
+        // Bits alternate between longitude and latitude, starting with longitude;
+        // every five bits make up one character.
+        while (hash.length() < precision) {
+            if (isLonBit) {
+                double mid = (minLon + maxLon) / 2;
+                if (longitudeDeg >= mid) {
+                    ch = (ch << 1) | 1;
+                    minLon = mid;
+                }
+                else {
+                    ch <<= 1;
+                    maxLon = mid;
+                }
+            }
+            else {
+                double mid = (minLat + maxLat) / 2;
+                if (latitudeDeg >= mid) {
+                    ch = (ch << 1) | 1;
+                    minLat = mid;
+                }
+                else {
+                    ch <<= 1;
+                    maxLat = mid;
+                }
+            }
+            isLonBit = !isLonBit;
+
+            if (++bit == 5) {
+                hash.append(BASE32[ch]);
+                bit = 0;
+                ch = 0;
+            }
+        }
+
+        return hash.toString();
+    }
+}
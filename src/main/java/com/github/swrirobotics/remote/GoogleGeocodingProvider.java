@@ -0,0 +1,88 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.remote;
+
+import com.github.swrirobotics.config.ConfigService;
+import com.google.maps.GeoApiContext;
+import com.google.maps.GeocodingApi;
+import com.google.maps.model.GeocodingResult;
+import com.google.maps.model.LatLng;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+/**
+ * Looks up locations with the Google Maps Geocoding API.
+ */
+@Component
+@Order(2)
+public class GoogleGeocodingProvider implements GeocodingProvider {
+    @Autowired
+    private ConfigService myConfigService;
+
+    // Contexts hold a connection pool, so share one as long as the key is the same.
+    private GeoApiContext myContext = null;
+    private String myContextKey = null;
+
+    private static final Logger myLogger = LoggerFactory.getLogger(GoogleGeocodingProvider.class);
+
+    @Override
+    public boolean isAvailable() {
+        String key = myConfigService.getConfiguration().getGoogleApiKey();
+        return key != null && !key.isEmpty();
+    }
+
+    @Override
+    public boolean isLocal() {
+        return false;
+    }
+
+    @Override
+    public String getLocationName(double latitudeDeg, double longitudeDeg) throws Exception {
+        GeocodingResult[] results = GeocodingApi
+                .reverseGeocode(getContext(), new LatLng(latitudeDeg, longitudeDeg)).await();
+        myLogger.trace("Number of results: " + results.length);
+        // There may be multiple results with sequentially less data in each;
+        // just use the first one, since it should have the most info.
+        return results.length > 0 ? results[0].formattedAddress : null;
+    }
+
+    private synchronized GeoApiContext getContext() {
+        String key = myConfigService.getConfiguration().getGoogleApiKey();
+        if (myContext == null || !key.equals(myContextKey)) {
+            myContext = new GeoApiContext().setApiKey(key);
+            myContextKey = key;
+        }
+        return myContext;
+    }
+}
@@ -0,0 +1,197 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.remote;
+
+import java.util.List;
+
+/**
+ * A k-d tree of named places that can quickly find the place nearest to a
+ * coordinate.  Coordinates are stored as points on a unit sphere so that
+ * distances are correct near the poles and across the antimeridian.
+ *
+ * <p>The tree is implicit: points are sorted so that the median of every
+ * range is the node that splits it, so no node objects are needed.
+ */
+final class PlaceKdTree {
+    private static final double EARTH_RADIUS_KM = 6371.0;
+
+    private final double[][] myCoords; // [axis][point], in tree order
+    private final String[] myNames;
+
+    /**
+     * @param names The name of each place.
+     * @param latitudesDeg The latitude of each place, in degrees.
+     * @param longitudesDeg The longitude of each place, in degrees.
+     */
+    PlaceKdTree(List<String> names, double[] latitudesDeg, double[] longitudesDeg) {
+        int count = names.size();
+        double[][] coords = new double[3][count];
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            double lat = Math.toRadians(latitudesDeg[i]);
+            double lon = Math.toRadians(longitudesDeg[i]);
+            coords[0][i] = Math.cos(lat) * Math.cos(lon);
+            coords[1][i] = Math.cos(lat) * Math.sin(lon);
+            coords[2][i] = Math.sin(lat);
+            order[i] = i;
+        }
+
+        build(coords, order, 0, count, 0);
+
+        myCoords = new double[3][count];
+        myNames = new String[count];
+        for (int i = 0; i < count; i++) {
+            for (int axis = 0; axis < 3; axis++) {
+                myCoords[axis][i] = coords[axis][order[i]];
+            }
+            myNames[i] = names.get(order[i]);
+        }
+    }
+
+    int size() {
+        return myNames.length;
+    }
+
+    /**
+     * Finds the place nearest to a coordinate.
+     * @param latitudeDeg The latitude, in degrees.
+     * @param longitudeDeg The longitude, in degrees.
+     * @param maxDistanceKm Places farther away than this are ignored.
+     * @return The name of the nearest place, or null if there aren't any
+     * within the maximum distance.
+     */
+    String findNearest(double latitudeDeg, double longitudeDeg, double maxDistanceKm) {
+        double lat = Math.toRadians(latitudeDeg);
+        double lon = Math.toRadians(longitudeDeg);
+        double[] query = {
+                Math.cos(lat) * Math.cos(lon),
+                Math.cos(lat) * Math.sin(lon),
+                Math.sin(lat)
+        };
+        // Compare squared chord lengths rather than distances along the surface.
+        double chord = 2 * Math.sin(Math.min(maxDistanceKm / EARTH_RADIUS_KM, Math.PI) / 2);
+        Nearest nearest = new Nearest(chord * chord * (1 + 1e-12));
+        search(query, 0, myNames.length, 0, nearest);
+        return nearest.index < 0 ? null : myNames[nearest.index];
+    }
+
+    private static class Nearest {
+        double distanceSq;
+        int index = -1;
+
+        Nearest(double distanceSq) {
+            this.distanceSq = distanceSq;
+        }
+    }
+
+    private void search(double[] query, int lo, int hi, int axis, Nearest nearest) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        double dx = query[0] - myCoords[0][mid];
+        double dy = query[1] - myCoords[1][mid];
+        double dz = query[2] - myCoords[2][mid];
+        double distanceSq = dx * dx + dy * dy + dz * dz;
+        if (distanceSq < nearest.distanceSq) {
+            nearest.distanceSq = distanceSq;
+            nearest.index = mid;
+        }
+
+        int nextAxis = (axis + 1) % 3;
+        double diff = query[axis] - myCoords[axis][mid];
+        if (diff < 0) {
+            search(query, lo, mid, nextAxis, nearest);
+            if (diff * diff < nearest.distanceSq) {
+                search(query, mid + 1, hi, nextAxis, nearest);
+            }
+        }
+        else {
+            search(query, mid + 1, hi, nextAxis, nearest);
+            if (diff * diff < nearest.distanceSq) {
+                search(query, lo, mid, nextAxis, nearest);
+            }
+        }
+    }
+
+    /**
+     * Arranges a range of points so that its median along the current axis
+     * is in the middle, everything before it is less than or equal to it,
+     * and everything after it is greater than or equal to it; then does the
+     * same for each half along the next axis.
+     */
+    private static void build(double[][] coords, int[] order, int lo, int hi, int axis) {
+        if (hi - lo < 2) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(coords[axis], order, lo, hi - 1, mid);
+        int nextAxis = (axis + 1) % 3;
+        build(coords, order, lo, mid, nextAxis);
+        build(coords, order, mid + 1, hi, nextAxis);
+    }
+
+    /**
+     * Quickselect: partially sorts order[left..right] so that order[k] is the
+     * point whose value would be there if the range were fully sorted.
+     */
+    private static void select(double[] values, int[] order, int left, int right, int k) {
+        while (right > left) {
+            double pivot = values[order[(left + right) >>> 1]];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[order[i]] < pivot) {
+                    i++;
+                }
+                while (values[order[j]] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            }
+            else if (k >= i) {
+                left = i;
+            }
+            else {
+                return;
+            }
+        }
+    }
+}
@@ -32,6 +32,7 @@ package com.github.swrirobotics.scripts;
 
 import com.amihaiemil.docker.Docker;
 import com.amihaiemil.docker.TcpDocker;
+import com.github.swrirobotics.bags.BagsChangedEvent;
 import com.github.swrirobotics.bags.NonexistentBagException;
 import com.github.swrirobotics.config.ConfigService;
 import com.github.swrirobotics.persistence.*;
@@ -52,6 +53,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
@@ -87,6 +89,8 @@ public class ScriptService extends StatusProvider {
     @Autowired
     private TagRepository tagRepository;
     @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    @Autowired
     private ApplicationContext myAC;
 
     private final GeometryFactory myGeometryFactory =
@@ -340,6 +344,8 @@ public class ScriptService extends StatusProvider {
 
             if (saveBags) {
                 bagRepository.saveAll(bags);
+                eventPublisher.publishEvent(new BagsChangedEvent(
+                        bags.stream().map(Bag::getId).collect(Collectors.toList())));
             }
         }
         catch (JsonException | IllegalStateException e) {
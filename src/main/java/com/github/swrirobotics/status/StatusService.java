@@ -38,6 +38,8 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.stereotype.Service;
+import com.github.swrirobotics.bags.BagIngestPipeline;
+import com.github.swrirobotics.bags.BagSearchIndex;
 import com.github.swrirobotics.bags.BagService;
 import com.github.swrirobotics.bags.filesystem.BagScanner;
 
@@ -52,6 +54,10 @@ public class StatusService implements StatusListener {
     @Autowired
     private BagService myBagService;
     @Autowired
+    private BagIngestPipeline myIngestPipeline;
+    @Autowired
+    private BagSearchIndex mySearchIndex;
+    @Autowired
     private ScriptService myScriptService;
     @Autowired
     private SimpMessagingTemplate messagingTemplate;
@@ -96,6 +102,8 @@ public class StatusService implements StatusListener {
             myScanner.registerStatusListener(this);
         }
         myBagService.registerStatusListener(this);
+        myIngestPipeline.registerStatusListener(this);
+        mySearchIndex.registerStatusListener(this);
         myScriptService.registerStatusListener(this);
     }
 
@@ -37,6 +37,7 @@ import java.util.List;
 public class BagList {
     private List<Bag> bags = null;
     private long totalCount = 0;
+    private String nextCursor = null;
 
     public BagList() {
     }
@@ -61,4 +62,16 @@ public class BagList {
         return this.bags;
     }
 
+    /**
+     * @return A {@link SearchCursor} that can be passed back to get the page
+     * after this one, or null if this page is empty.
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public void setNextCursor(String nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
 }
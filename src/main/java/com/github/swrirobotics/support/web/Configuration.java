@@ -57,6 +57,30 @@ public class Configuration implements Serializable {
     private String ldapSearchBase = "";
     private String ldapServer = "";
     private String ldapUserPattern = "";
+    // Thread counts for each stage of adding new bags; 0 means to use
+    // the number of available processors.
+    private Integer fingerprintThreads = 0;
+    private Integer extractThreads = 0;
+    private Integer geocodeThreads = 4;
+    private Integer databaseThreads = 4;
+    private Integer ingestQueueSize = 64;
+    private Boolean parallelDiscovery = true;
+    // Tolerances in meters for simplifying GPS paths, from coarsest to finest.
+    // Positions that aren't needed at the finest level aren't stored, so the
+    // finest level is 0 by default in order to keep every position.
+    private Double[] gpsPathTolerances = new Double[]{20.0, 5.0, 0.0};
+    // Maximum rate of requests to the reverse geocoding API
+    private Double geocodeRequestsPerSecond = 10.0;
+    // A GeoNames dump or CSV file used to look up locations without network access
+    private String gazetteerPath = "";
+    // Threads used by admin jobs that update every bag; 0 means one per processor
+    private Integer updaterThreads = 0;
+    // How text searches are done: "index" uses the full-text search index,
+    // "database" searches the database directly
+    private String searchMode = "index";
+    // The maximum number of bags to keep in cached search results; 0 disables
+    // the cache
+    private Integer searchCacheSize = 10000;
 
     // Named "useMapQuest" for legacy support with older configs;
     // MapQuest is actually unsupported now and this will enable/disable
@@ -273,4 +297,100 @@ public class Configuration implements Serializable {
     public void setLdapUserPattern(String ldapUserPattern) {
         this.ldapUserPattern = ldapUserPattern;
     }
+
+    public Integer getFingerprintThreads() {
+        return fingerprintThreads;
+    }
+
+    public void setFingerprintThreads(Integer fingerprintThreads) {
+        this.fingerprintThreads = fingerprintThreads;
+    }
+
+    public Integer getExtractThreads() {
+        return extractThreads;
+    }
+
+    public void setExtractThreads(Integer extractThreads) {
+        this.extractThreads = extractThreads;
+    }
+
+    public Integer getGeocodeThreads() {
+        return geocodeThreads;
+    }
+
+    public void setGeocodeThreads(Integer geocodeThreads) {
+        this.geocodeThreads = geocodeThreads;
+    }
+
+    public Integer getDatabaseThreads() {
+        return databaseThreads;
+    }
+
+    public void setDatabaseThreads(Integer databaseThreads) {
+        this.databaseThreads = databaseThreads;
+    }
+
+    public Integer getIngestQueueSize() {
+        return ingestQueueSize;
+    }
+
+    public void setIngestQueueSize(Integer ingestQueueSize) {
+        this.ingestQueueSize = ingestQueueSize;
+    }
+
+    public Boolean getParallelDiscovery() {
+        return parallelDiscovery;
+    }
+
+    public void setParallelDiscovery(Boolean parallelDiscovery) {
+        this.parallelDiscovery = parallelDiscovery;
+    }
+
+    public Double[] getGpsPathTolerances() {
+        return gpsPathTolerances;
+    }
+
+    public void setGpsPathTolerances(Double[] gpsPathTolerances) {
+        this.gpsPathTolerances = gpsPathTolerances;
+    }
+
+    public Double getGeocodeRequestsPerSecond() {
+        return geocodeRequestsPerSecond;
+    }
+
+    public void setGeocodeRequestsPerSecond(Double geocodeRequestsPerSecond) {
+        this.geocodeRequestsPerSecond = geocodeRequestsPerSecond;
+    }
+
+    public String getGazetteerPath() {
+        return gazetteerPath;
+    }
+
+    public void setGazetteerPath(String gazetteerPath) {
+        this.gazetteerPath = gazetteerPath;
+    }
+
+    public Integer getUpdaterThreads() {
+        return updaterThreads;
+    }
+
+    public void setUpdaterThreads(Integer updaterThreads) {
+        this.updaterThreads = updaterThreads;
+    }
+
+    public String getSearchMode() {
+        return searchMode;
+    }
+
+    public void setSearchMode(String searchMode) {
+        this.searchMode = searchMode;
+    }
+
+    public Integer getSearchCacheSize() {
+        return searchCacheSize;
+    }
+
+    public void setSearchCacheSize(Integer searchCacheSize) {
+        this.searchCacheSize = searchCacheSize;
+    }
 }
@@ -0,0 +1,138 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.support.web;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.Date;
+
+/**
+ * Marks the position of the last bag on a page of search results so that the
+ * next page can be found by seeking past it instead of skipping over every
+ * earlier row with an OFFSET.
+ *
+ * Cursors are passed to and from the web client as strings in the form
+ * "id" or "id:value", where the value is the bag's value for the column the
+ * results are sorted by; it is left out if that value is null.  Timestamps
+ * are written with their full precision so that they can be compared exactly.
+ */
+public class SearchCursor {
+    private final long id;
+    private final String value;
+
+    private SearchCursor(long id, String value) {
+        this.id = id;
+        this.value = value;
+    }
+
+    /**
+     * @param id The ID of the last bag on a page.
+     * @param value The bag's value for the sort column; may be null.
+     */
+    public static SearchCursor of(long id, Object value) {
+        if (value == null) {
+            return new SearchCursor(id, null);
+        }
+        else if (value instanceof Date) {
+            Instant instant = value instanceof Timestamp ?
+                    ((Timestamp) value).toInstant() : ((Date) value).toInstant();
+            return new SearchCursor(id, instant.toString());
+        }
+        return new SearchCursor(id, value.toString());
+    }
+
+    /**
+     * Parses a cursor that was created by {@link #toString()}.  Spring uses
+     * this to convert request parameters.
+     * @throws IllegalArgumentException If the string isn't a valid cursor.
+     */
+    public static SearchCursor valueOf(String cursor) {
+        int separator = cursor.indexOf(':');
+        try {
+            if (separator < 0) {
+                return new SearchCursor(Long.parseLong(cursor), null);
+            }
+            return new SearchCursor(Long.parseLong(cursor.substring(0, separator)),
+                                    cursor.substring(separator + 1));
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid search cursor: " + cursor, e);
+        }
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @param type The Java type of the sort column.
+     * @return The sort value converted to that type, or null if it was null.
+     * @throws IllegalArgumentException If the value can't be converted.
+     */
+    public Object getValue(Class<?> type) {
+        if (value == null || type == String.class) {
+            return value;
+        }
+        try {
+            if (type == Timestamp.class) {
+                return Timestamp.from(Instant.parse(value));
+            }
+            else if (type == Date.class) {
+                return Date.from(Instant.parse(value));
+            }
+            else if (type == Long.class) {
+                return Long.valueOf(value);
+            }
+            else if (type == Integer.class) {
+                return Integer.valueOf(value);
+            }
+            else if (type == Double.class) {
+                return Double.valueOf(value);
+            }
+            else if (type == Float.class) {
+                return Float.valueOf(value);
+            }
+            else if (type == Boolean.class) {
+                return Boolean.valueOf(value);
+            }
+        }
+        catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid " + type.getSimpleName() +
+                                               " in search cursor: " + value, e);
+        }
+        throw new IllegalArgumentException("Can't seek on values of type " + type.getName());
+    }
+
+    @Override
+    public String toString() {
+        return value == null ? Long.toString(id) : id + ":" + value;
+    }
+}
@@ -54,6 +54,39 @@ Ext.define('BagDatabase.stores.BagStore', {
         property: 'filename',
         direction: 'ASC'
     }],
+    constructor: function(config) {
+        this.callParent([config]);
+        this.on({
+            beforeprefetch: this.addPageCursor,
+            prefetch: this.savePageCursor,
+            scope: this
+        });
+    },
+    /**
+     * If the page before the one being requested has been loaded, pass its
+     * cursor to the server so that it can seek directly to the requested
+     * page instead of counting through every row before it.
+     */
+    addPageCursor: function(store, operation) {
+        var data, page, previousRecords, cursor;
+        data = store.getData();
+        page = operation.getPage();
+        if (page > 1 && data.hasPage(page - 1)) {
+            previousRecords = data.getPage(page - 1);
+            cursor = previousRecords.length ? previousRecords[previousRecords.length - 1].searchCursor : null;
+            if (cursor) {
+                operation.setParams(Ext.apply({}, operation.getParams(), {
+                    after: cursor
+                }));
+            }
+        }
+    },
+    savePageCursor: function(store, records, successful) {
+        var rawData = store.getProxy().getReader().rawData;
+        if (successful && records && records.length && rawData) {
+            records[records.length - 1].searchCursor = rawData.nextCursor;
+        }
+    },
     filterBags: function(terms, fields) {
         this.getProxy().setExtraParam('text', terms);
         this.getProxy().setExtraParam('fields', fields);
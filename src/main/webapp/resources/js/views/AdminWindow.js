@@ -134,6 +134,83 @@ Ext.define('BagDatabase.views.AdminWindow', {
                     url: 'admin/updateTags'
                 });
             }
+        }, {
+            xtype: 'button',
+            text: 'Re-extract missing fields from bag files',
+            margin: '5 0 0 0',
+            handler: function() {
+                var win = Ext.create('Ext.window.Window', {
+                    title: 'Re-extract missing fields',
+                    layout: 'border',
+                    height: 220,
+                    width: 300,
+                    items: [{
+                        xtype: 'form',
+                        region: 'center',
+                        layout: 'anchor',
+                        defaults: {
+                            margin: 5,
+                            anchor: '100%'
+                        },
+                        items: [{
+                            xtype: 'checkboxgroup',
+                            itemId: 'fieldsGroup',
+                            columns: 1,
+                            allowBlank: false,
+                            items: [{
+                                boxLabel: 'Latitudes & longitudes',
+                                name: 'fields',
+                                inputValue: 'COORDINATE',
+                                checked: true
+                            }, {
+                                boxLabel: 'GPS paths',
+                                name: 'fields',
+                                inputValue: 'GPS_PATH',
+                                checked: true
+                            }, {
+                                boxLabel: 'Vehicle names',
+                                name: 'fields',
+                                inputValue: 'VEHICLE_NAME',
+                                checked: true
+                            }, {
+                                boxLabel: 'Metadata tags',
+                                name: 'fields',
+                                inputValue: 'TAGS',
+                                checked: true
+                            }]
+                        }],
+                        buttons: [{
+                            text: 'Start',
+                            formBind: true,
+                            handler: function(button) {
+                                var fields = button.up('form').down('#fieldsGroup').getValue().fields;
+                                var params = {
+                                    fields: Ext.Array.from(fields).join(',')
+                                };
+                                params[csrfName] = csrfToken;
+                                Ext.Ajax.request({
+                                    params: params,
+                                    url: 'admin/reextract'
+                                });
+                                button.up('window').close();
+                            }
+                        }]
+                    }]
+                });
+                win.show();
+            }
+        }, {
+            xtype: 'button',
+            text: 'Rebuild the full-text search index',
+            margin: '5 0 0 0',
+            handler: function() {
+                var params = {};
+                params[csrfName] = csrfToken;
+                Ext.Ajax.request({
+                    params: params,
+                    url: 'admin/rebuildSearchIndex'
+                });
+            }
         }, {
             xtype: 'button',
             text: 'Remove DB entries for missing bags',
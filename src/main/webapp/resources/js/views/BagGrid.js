@@ -456,7 +456,8 @@ Ext.define('BagDatabase.views.BagGrid', {
         loadMask.show();
 
         params = {
-            bagIds: bagIds
+            bagIds: bagIds,
+            maxPoints: 50000
         };
         params[csrfName] = csrfToken;
         Ext.Ajax.request({
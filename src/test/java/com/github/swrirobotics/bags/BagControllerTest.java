@@ -38,10 +38,12 @@ import com.github.swrirobotics.persistence.Tag;
 import com.github.swrirobotics.persistence.Topic;
 import com.github.swrirobotics.support.web.BagList;
 import com.github.swrirobotics.support.web.ExtJsFilter;
+import com.github.swrirobotics.support.web.SearchCursor;
 import org.junit.Test;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.restdocs.payload.FieldDescriptor;
+import org.springframework.restdocs.payload.JsonFieldType;
 
 import java.sql.Timestamp;
 import java.util.ArrayList;
@@ -297,14 +299,19 @@ public class BagControllerTest extends WebAppConfigurationAware {
         tsFilter.setOperator("lt");
         tsFilter.setValue(Long.toString(System.currentTimeMillis()));
         ExtJsFilter[] filters = new ExtJsFilter[]{tsFilter};
+        BagList bagList = makeTestBagList();
+        bagList.setNextCursor(SearchCursor.of(1L, "test.bag").toString());
         when(bagService.findBagsContainingText("Key",
             new String[]{"tags"},
             filters,
             1,
             100,
             "ASC",
-            "filename"))
-            .thenReturn(makeTestBagList());
+            "filename",
+            null,
+            true,
+            true))
+            .thenReturn(bagList);
         ObjectMapper mapper = new ObjectMapper();
         mockMvc.perform(get("/bags/search")
             .param("text", "Key")
@@ -341,10 +348,16 @@ public class BagControllerTest extends WebAppConfigurationAware {
                 parameterWithName("fillTopics").description("True to fill in the topic list for each bag, false to " +
                     "leave it empty").optional(),
                 parameterWithName("fillTypes").description("True to fill in the list of message types for each bag, " +
-                    "false to leave it empty").optional()
+                    "false to leave it empty").optional(),
+                parameterWithName("after").description("The nextCursor from the previous page of results; if " +
+                    "given, the page after that one is returned by seeking past its last bag, which is much faster " +
+                    "than skipping to the page number.  The search terms, sort, and dir must be the same as the " +
+                    "previous page's").optional()
             ), responseFields(
                 fieldWithPath("totalCount").description("Total number of bag files returned by the search"),
-                fieldWithPath("bags").description("The requested page of bags that match the search")
+                fieldWithPath("bags").description("The requested page of bags that match the search"),
+                fieldWithPath("nextCursor").type(JsonFieldType.STRING).description("Can be passed as the after " +
+                    "parameter to get the next page of results; null if this page is empty").optional()
             )
                 .andWithPrefix("bags[].", getBagListFields())
                 .andWithPrefix("bags[].messageTypes[].", getMessageTypesFields())
@@ -431,14 +444,15 @@ public class BagControllerTest extends WebAppConfigurationAware {
 
     @Test
     public void getGpsCoordsForBag() throws Exception {
-        when(bagService.getGpsCoordsForBags(new ArrayList<>(){{add(1L); add(2L); add(3L);}}))
+        when(bagService.getGpsCoordsForBags(new ArrayList<>(){{add(1L); add(2L); add(3L);}}, 50000))
             .thenReturn(new ArrayList<>() {{
                 add(new Double[]{1.0, 2.0});
                 add(new Double[]{1.0, 3.0});
                 add(new Double[]{2.0, 3.0});
             }});
         mockMvc.perform(get("/bags/coords")
-            .param("bagIds", "1", "2", "3"))
+            .param("bagIds", "1", "2", "3")
+            .param("maxPoints", "50000"))
             .andExpect(status().isOk())
             .andExpect(jsonPath("$[0][0]").value("1.0"))
             .andExpect(jsonPath("$[0][1]").value("2.0"))
@@ -450,7 +464,9 @@ public class BagControllerTest extends WebAppConfigurationAware {
             preprocessRequest(prettyPrint()),
             preprocessResponse(prettyPrint()),
             requestParameters(
-                parameterWithName("bagIds").description("Database IDs of bags to get GPS coordinates for")
+                parameterWithName("bagIds").description("Database IDs of bags to get GPS coordinates for"),
+                parameterWithName("maxPoints").optional().description(
+                    "If set, the most detailed version of the paths that has no more than this many points")
             ),
             responseFields(
                 fieldWithPath("[]").description("A list of (longitude, latitude) coordinates from each bag file.")
@@ -0,0 +1,123 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.bags;
+
+import com.github.swrirobotics.persistence.BagCount;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BagPathTrieTest {
+    private BagPathTrie myTrie;
+
+    @Before
+    public void setup() {
+        myTrie = new BagPathTrie();
+        myTrie.put(1, "/bags/a/", "Run1.bag");
+        myTrie.put(2, "/bags/a/", "run2.bag");
+        myTrie.put(3, "/bags/a/b/", "other.bag");
+        myTrie.put(4, "/bags/ab/", "run3.bag");
+    }
+
+    private Map<String, Long> count(String text) {
+        return myTrie.countMatching(text).stream()
+                .collect(Collectors.toMap(c -> c.path, c -> c.count));
+    }
+
+    @Test
+    public void testRecursiveCounts() {
+        Map<String, Long> counts = count("");
+        assertEquals(4L, (long) counts.get("/"));
+        assertEquals(4L, (long) counts.get("/bags/"));
+        assertEquals(3L, (long) counts.get("/bags/a/"));
+        assertEquals(1L, (long) counts.get("/bags/a/b/"));
+        assertEquals(1L, (long) counts.get("/bags/ab/"));
+    }
+
+    @Test
+    public void testFilteredCountsIgnoreCase() {
+        Map<String, Long> counts = count("RUN");
+        assertEquals(3L, (long) counts.get("/bags/"));
+        assertEquals(2L, (long) counts.get("/bags/a/"));
+        assertEquals(0L, (long) counts.get("/bags/a/b/"));
+        assertEquals(1L, (long) counts.get("/bags/ab/"));
+    }
+
+    @Test
+    public void testMove() {
+        myTrie.put(3, "/bags/ab/", "other.bag");
+        Map<String, Long> counts = count("");
+        assertEquals(2L, (long) counts.get("/bags/a/"));
+        assertEquals(2L, (long) counts.get("/bags/ab/"));
+        assertFalse(counts.containsKey("/bags/a/b/"));
+    }
+
+    @Test
+    public void testRemove() {
+        myTrie.remove(4);
+        myTrie.remove(4);
+        Map<String, Long> counts = count("");
+        assertEquals(3L, (long) counts.get("/bags/"));
+        assertFalse(counts.containsKey("/bags/ab/"));
+        assertEquals(3, myTrie.size());
+    }
+
+    @Test
+    public void testCountBags() {
+        assertEquals(4L, myTrie.countBags("/bags/"));
+        assertEquals(3L, myTrie.countBags("/bags/a/"));
+        assertEquals(1L, myTrie.countBags("/bags/ab/"));
+        assertEquals(0L, myTrie.countBags("/bags/c/"));
+
+        myTrie.put(3, "/bags/ab/", "other.bag");
+        myTrie.remove(1);
+        assertEquals(1L, myTrie.countBags("/bags/a/"));
+        assertEquals(0L, myTrie.countBags("/bags/a/b/"));
+        assertEquals(2L, myTrie.countBags("/bags/ab/"));
+
+        myTrie.clear();
+        assertEquals(0L, myTrie.countBags("/bags/"));
+    }
+
+    @Test
+    public void testWildcardCharactersAreLiteral() {
+        myTrie.put(5, "/bags/a_c/", "x.bag");
+        Map<String, Long> counts = count("_");
+        assertEquals(0L, (long) counts.get("/bags/a/"));
+        assertTrue(counts.containsKey("/bags/a_c/"));
+    }
+}
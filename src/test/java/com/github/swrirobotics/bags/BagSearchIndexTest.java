@@ -0,0 +1,231 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.bags;
+
+import com.github.swrirobotics.persistence.Bag;
+import com.github.swrirobotics.persistence.BagRepository;
+import com.github.swrirobotics.persistence.Tag;
+import com.github.swrirobotics.persistence.Topic;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BagSearchIndexTest {
+    private static final String DATABASE_URL = "jdbc:postgresql://localhost/bag_database";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private BagSearchIndex myIndex;
+    private ApplicationEventPublisher myEventPublisher;
+    // The bags that the stubbed repository has in it
+    private final Map<Long, Bag> myBags = new ConcurrentHashMap<>();
+    private int myUpdateCount = 0;
+
+    @Before
+    public void setUp() throws Exception {
+        BagRepository bagRepository = mock(BagRepository.class);
+        when(bagRepository.findIdPages(anyInt())).thenAnswer(
+                invocation -> Collections.singletonList(new ArrayList<>(myBags.keySet())));
+        when(bagRepository.findAllById(any())).thenAnswer(invocation -> {
+            List<Bag> bags = new ArrayList<>();
+            for (Long bagId : invocation.<Iterable<Long>>getArgument(0)) {
+                if (myBags.containsKey(bagId)) {
+                    bags.add(myBags.get(bagId));
+                }
+            }
+            return bags;
+        });
+        myEventPublisher = mock(ApplicationEventPublisher.class);
+
+        myIndex = new BagSearchIndex();
+        ReflectionTestUtils.setField(myIndex, "myBagRepository", bagRepository);
+        ReflectionTestUtils.setField(myIndex, "myEventPublisher", myEventPublisher);
+        myIndex.open(FSDirectory.open(folder.getRoot().toPath()), DATABASE_URL);
+
+        Bag first = makeBag(1L, "2020-01-01-test.bag", "/bags/field/");
+        first.setVehicle("Husky");
+        addTopic(first, "/localization/odom");
+        addTopic(first, "/tf");
+        addTag(first, "operator", "Orange Team");
+
+        Bag second = makeBag(2L, "calibration.bag", "/bags/lab/");
+        second.setDescription("Camera calibration run");
+        addTopic(second, "/camera/image_raw");
+
+        myBags.put(1L, first);
+        myBags.put(2L, second);
+        myIndex.rebuild();
+        waitForUpdate();
+    }
+
+    @After
+    public void tearDown() {
+        if (myIndex != null) {
+            myIndex.destroy();
+        }
+    }
+
+    @Test
+    public void testSubstringsMatchIgnoringCase() {
+        assertEquals(Collections.singletonList(1L), search("HUSK", "vehicle"));
+        assertEquals(Collections.singletonList(2L), search("ibration r", "description"));
+        assertEquals(Collections.singletonList(1L), search("ization/od", "topicName"));
+    }
+
+    @Test
+    public void testShortTextMatches() {
+        assertEquals(Collections.singletonList(1L), search("tf", "topicName"));
+        assertEquals(Collections.singletonList(2L), search("b/", "path"));
+    }
+
+    @Test
+    public void testMultipleFields() {
+        List<Long> ids = search("cal", "filename", "topicName");
+        assertEquals(Collections.singletonList(2L), ids);
+
+        ids = search("bag", "filename");
+        Collections.sort(ids);
+        assertEquals(Arrays.asList(1L, 2L), ids);
+    }
+
+    @Test
+    public void testPhrasesDoNotSpanValues() {
+        // The last trigram of "operator" is followed by the first trigram of
+        // "orange team", but "tora" isn't in either of them.
+        assertTrue(search("tora", "tags").isEmpty());
+        assertEquals(Collections.singletonList(1L), search("orange t", "tags"));
+    }
+
+    @Test
+    public void testUpdatesReplaceBags() {
+        myBags.put(1L, makeBag(1L, "renamed.bag", "/bags/field/"));
+        myIndex.onBagsChanged(new BagsChangedEvent(1L));
+        waitForUpdate();
+
+        assertTrue(search("2020-01-01", "filename").isEmpty());
+        assertEquals(Collections.singletonList(1L), search("renamed", "filename"));
+    }
+
+    @Test
+    public void testDeletedBagsAreRemoved() {
+        myBags.remove(2L);
+        myIndex.onBagsChanged(new BagsChangedEvent(2L));
+        waitForUpdate();
+
+        assertTrue(search("calibration", "filename").isEmpty());
+        assertEquals(Collections.singletonList(1L), search("bag", "filename"));
+    }
+
+    @Test
+    public void testUnknownFieldsAreNotSearched() {
+        assertNull(myIndex.findBagIds("test", Collections.singletonList("md5sum")));
+    }
+
+    @Test
+    public void testIndexIsOnlyReusedForTheSameDatabase() throws IOException {
+        myIndex.destroy();
+        myIndex = null;
+
+        assertTrue(isReopenedIndexUpToDate(DATABASE_URL, 2));
+        assertFalse(isReopenedIndexUpToDate("jdbc:postgresql://otherhost/bag_database", 2));
+        assertFalse(isReopenedIndexUpToDate(DATABASE_URL, 3));
+    }
+
+    private boolean isReopenedIndexUpToDate(String databaseUrl, long bagCount) throws IOException {
+        BagSearchIndex index = new BagSearchIndex();
+        index.open(FSDirectory.open(folder.getRoot().toPath()), databaseUrl);
+        try {
+            return index.isUpToDate(bagCount);
+        }
+        finally {
+            index.destroy();
+        }
+    }
+
+    /**
+     * Waits for the index to finish the next update in the background.
+     */
+    private void waitForUpdate() {
+        myUpdateCount++;
+        verify(myEventPublisher, timeout(5000).times(myUpdateCount))
+                .publishEvent(any(SearchIndexUpdatedEvent.class));
+    }
+
+    private List<Long> search(String text, String... fields) {
+        return myIndex.findBagIds(text, Arrays.asList(fields));
+    }
+
+    private static Bag makeBag(Long id, String filename, String path) {
+        Bag bag = new Bag();
+        bag.setId(id);
+        bag.setFilename(filename);
+        bag.setPath(path);
+        return bag;
+    }
+
+    private static void addTopic(Bag bag, String name) {
+        Topic topic = new Topic();
+        topic.setTopicName(name);
+        bag.getTopics().add(topic);
+    }
+
+    private static void addTag(Bag bag, String key, String value) {
+        Tag tag = new Tag();
+        tag.setTag(key);
+        tag.setValue(value);
+        bag.getTags().add(tag);
+    }
+}
@@ -0,0 +1,188 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.bags;
+
+import com.github.swrirobotics.bags.reader.BagFile;
+import com.github.swrirobotics.config.WebAppConfigurationAware;
+import com.github.swrirobotics.persistence.Bag;
+import com.github.swrirobotics.persistence.BagRepository;
+import com.github.swrirobotics.support.web.BagList;
+import com.github.swrirobotics.support.web.Configuration;
+import com.github.swrirobotics.support.web.ExtJsFilter;
+import com.github.swrirobotics.support.web.SearchCursor;
+import com.google.common.collect.HashMultimap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.Rollback;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.io.File;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@Rollback
+public class BagServiceTest extends WebAppConfigurationAware {
+    @Autowired
+    private BagService myBagService;
+
+    @Autowired
+    private BagRepository myBagRepository;
+
+    @Autowired
+    private BagSearchCache mySearchCache;
+
+    @PersistenceContext
+    private EntityManager myEM;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String PATH = "/seek-test/";
+    // Some bags share a value and some have none, so seeking has to break ties
+    // by ID and handle nulls in both sort directions.
+    private static final String[] VEHICLES = {"b", null, "a", "b", null, "c", "a"};
+
+    private void insertBags() {
+        for (int i = 0; i < VEHICLES.length; i++) {
+            Bag bag = new Bag();
+            bag.setMd5sum("seek-test-" + i);
+            bag.setCreatedOn(new Timestamp(System.currentTimeMillis()));
+            bag.setDuration(0.0);
+            bag.setStartTime(new Timestamp(System.currentTimeMillis()));
+            bag.setEndTime(new Timestamp(System.currentTimeMillis()));
+            bag.setFilename(i + ".bag");
+            bag.setPath(PATH);
+            bag.setVersion("test");
+            bag.setCompressed(false);
+            bag.setIndexed(true);
+            bag.setMessageCount(0L);
+            bag.setMissing(false);
+            bag.setSize(0L);
+            bag.setVehicle(VEHICLES[i]);
+            myBagRepository.save(bag);
+        }
+        mySearchCache.invalidate();
+    }
+
+    private BagList search(int page, int size, String dir, SearchCursor after) {
+        ExtJsFilter filter = new ExtJsFilter();
+        filter.setProperty("path");
+        filter.setOperator("like");
+        filter.setValue(PATH);
+        return myBagService.findBagsContainingText("", null, new ExtJsFilter[]{filter},
+                                                   page, size, dir, "vehicle", after, false, false);
+    }
+
+    private static List<Long> getIds(BagList bags) {
+        return bags.getBags().stream().map(Bag::getId).collect(Collectors.toList());
+    }
+
+    private void checkSeekMatchesOffsets(String dir) {
+        insertBags();
+        List<Long> expected = getIds(search(1, 100, dir, null));
+        assertEquals(VEHICLES.length, expected.size());
+
+        List<Long> actual = new ArrayList<>();
+        SearchCursor cursor = null;
+        for (int page = 1; page <= VEHICLES.length; page++) {
+            BagList bags = search(page, 2, dir, cursor);
+            if (bags.getBags().isEmpty()) {
+                break;
+            }
+            actual.addAll(getIds(bags));
+            cursor = SearchCursor.valueOf(bags.getNextCursor());
+        }
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    @Transactional
+    public void testSeekAscendingWithNulls() {
+        checkSeekMatchesOffsets("ASC");
+    }
+
+    @Test
+    @Transactional
+    public void testSeekDescendingWithNulls() {
+        checkSeekMatchesOffsets("DESC");
+    }
+
+    @Test
+    @Transactional
+    public void testNewBagWithGpsHasPath() throws Exception {
+        BagMetadataExtractor metadata = new BagMetadataExtractor(new Configuration());
+        metadata.getGpsPositions().add(new GpsPosition(29.4, -98.6, new Timestamp(1000L)));
+        metadata.getGpsPositions().add(new GpsPosition(29.5, -98.5, new Timestamp(2000L)));
+
+        assertTrue(insertNewBag("gps", metadata).getHasPath());
+    }
+
+    @Test
+    @Transactional
+    public void testNewBagWithoutGpsHasNoPath() throws Exception {
+        BagMetadataExtractor metadata = new BagMetadataExtractor(new Configuration());
+
+        assertFalse(insertNewBag("no-gps", metadata).getHasPath());
+    }
+
+    /**
+     * Inserts a new bag the same way the ingest pipeline does and reads it
+     * back from the database.
+     */
+    private Bag insertNewBag(String name, BagMetadataExtractor metadata) throws Exception {
+        File file = folder.newFile(name + ".bag");
+        BagFile bagFile = mock(BagFile.class);
+        when(bagFile.getPath()).thenReturn(file.toPath());
+        when(bagFile.getVersion()).thenReturn("2.0");
+        when(bagFile.getStartTime()).thenReturn(new Timestamp(1000L));
+        when(bagFile.getEndTime()).thenReturn(new Timestamp(2000L));
+        when(bagFile.getMessageTypes()).thenReturn(HashMultimap.create());
+
+        Bag bag = myBagService.updateBagInDatabase(null, bagFile, "insert-test-" + name,
+                                                   new HashMap<>(), metadata, null);
+        myEM.flush();
+        myEM.clear();
+        return myBagRepository.findById(bag.getId()).orElseThrow();
+    }
+}
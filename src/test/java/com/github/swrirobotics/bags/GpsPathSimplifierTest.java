@@ -0,0 +1,144 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.bags;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GpsPathSimplifierTest {
+    // Roughly one meter of latitude, in degrees
+    private static final double ONE_METER = 1.0 / 111195.0;
+
+    @Test
+    public void testStraightLineKeepsEndpoints() {
+        int count = 100;
+        double[] lats = new double[count];
+        double[] lons = new double[count];
+        for (int i = 0; i < count; i++) {
+            lats[i] = 29.0 + i * ONE_METER;
+            lons[i] = -98.0;
+        }
+
+        int[] levels = GpsPathSimplifier.computeDetailLevels(lats, lons, new double[]{10.0, 1.0});
+
+        assertEquals(0, levels[0]);
+        assertEquals(0, levels[count - 1]);
+        for (int i = 1; i < count - 1; i++) {
+            assertEquals(GpsPathSimplifier.DISCARDED, levels[i]);
+        }
+    }
+
+    @Test
+    public void testCornerIsKeptAtEveryLevel() {
+        // An "L" shape: 50 meters north, then 50 meters east
+        double[] lats = new double[101];
+        double[] lons = new double[101];
+        for (int i = 0; i <= 50; i++) {
+            lats[i] = 29.0 + i * ONE_METER;
+            lons[i] = -98.0;
+        }
+        for (int i = 51; i <= 100; i++) {
+            lats[i] = lats[50];
+            lons[i] = -98.0 + (i - 50) * ONE_METER / Math.cos(Math.toRadians(29.0));
+        }
+
+        int[] levels = GpsPathSimplifier.computeDetailLevels(lats, lons, new double[]{20.0, 1.0});
+
+        assertEquals(0, levels[0]);
+        assertEquals(0, levels[50]);
+        assertEquals(0, levels[100]);
+    }
+
+    @Test
+    public void testSmallDeviationOnlyAtFineLevel() {
+        // A straight 100 meter line with a 5 meter bump in the middle
+        double[] lats = new double[]{29.0, 29.0 + 50 * ONE_METER, 29.0 + 100 * ONE_METER};
+        double offset = 5 * ONE_METER / Math.cos(Math.toRadians(29.0));
+        double[] lons = new double[]{-98.0, -98.0 + offset, -98.0};
+
+        int[] levels = GpsPathSimplifier.computeDetailLevels(lats, lons, new double[]{10.0, 1.0});
+
+        assertArrayEquals(new int[]{0, 1, 0}, levels);
+    }
+
+    @Test
+    public void testNoTolerancesKeepsEverything() {
+        double[] lats = new double[]{29.0, 29.0001, 29.0002, 29.0003};
+        double[] lons = new double[]{-98.0, -98.0, -98.0, -98.0};
+
+        int[] levels = GpsPathSimplifier.computeDetailLevels(lats, lons, new double[0]);
+
+        for (int level : levels) {
+            assertEquals(0, level);
+        }
+    }
+
+    @Test
+    public void testZeroToleranceKeepsEverything() {
+        // A straight line that stops and repeats the same position
+        double[] lats = new double[]{29.0, 29.0001, 29.0001, 29.0002, 29.0003};
+        double[] lons = new double[]{-98.0, -98.0, -98.0, -98.0, -98.0};
+
+        int[] levels = GpsPathSimplifier.computeDetailLevels(lats, lons, new double[]{10.0, 0.0});
+
+        assertArrayEquals(new int[]{0, 1, 1, 1, 0}, levels);
+    }
+
+    @Test
+    public void testLevelsAreNested() {
+        int count = 1000;
+        double[] lats = new double[count];
+        double[] lons = new double[count];
+        for (int i = 0; i < count; i++) {
+            lats[i] = 29.0 + i * ONE_METER;
+            lons[i] = -98.0 + Math.sin(i / 20.0) * 30 * ONE_METER;
+        }
+
+        double[] tolerances = new double[]{25.0, 5.0, 0.5};
+        int[] levels = GpsPathSimplifier.computeDetailLevels(lats, lons, tolerances);
+
+        int previousCount = 0;
+        for (int level = 0; level < tolerances.length; level++) {
+            int levelCount = 0;
+            for (int l : levels) {
+                if (l != GpsPathSimplifier.DISCARDED && l <= level) {
+                    levelCount++;
+                }
+            }
+            assertTrue(levelCount >= previousCount);
+            previousCount = levelCount;
+        }
+        assertTrue(previousCount < count);
+    }
+}
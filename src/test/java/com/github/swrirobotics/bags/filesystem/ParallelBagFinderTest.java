@@ -0,0 +1,125 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.bags.filesystem;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelBagFinderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFindsBagsInSubdirectories() throws Exception {
+        Path root = folder.getRoot().toPath();
+        Files.createDirectories(root.resolve("a/b/c"));
+        Files.createDirectories(root.resolve("d"));
+        Path bag1 = Files.createFile(root.resolve("1.bag"));
+        Path bag2 = Files.createFile(root.resolve("a/b/c/2.bag"));
+        Path bag3 = Files.createFile(root.resolve("d/3.bag"));
+        Files.createFile(root.resolve("a/notes.txt"));
+
+        Set<File> found = Collections.synchronizedSet(new HashSet<>());
+        long count = new ParallelBagFinder(found::add, (dir, e) -> {}).find(root, 4);
+
+        assertEquals(3, count);
+        assertEquals(3, found.size());
+        assertTrue(found.contains(bag1.toAbsolutePath().toFile()));
+        assertTrue(found.contains(bag2.toAbsolutePath().toFile()));
+        assertTrue(found.contains(bag3.toAbsolutePath().toFile()));
+    }
+
+    @Test
+    public void testSkipsSpecialDirectories() throws Exception {
+        Path root = folder.getRoot().toPath();
+        Files.createDirectories(root.resolve("@eaDir/sub"));
+        Files.createFile(root.resolve("@eaDir/sub/1.bag"));
+        Path bag = Files.createFile(root.resolve("2.bag"));
+
+        Set<File> found = Collections.synchronizedSet(new HashSet<>());
+        long count = new ParallelBagFinder(found::add, (dir, e) -> {}).find(root, 2);
+
+        assertEquals(1, count);
+        assertTrue(found.contains(bag.toAbsolutePath().toFile()));
+        assertTrue(ParallelBagFinder.isIgnoredDirectory(root.resolve("@eaDir")));
+        assertFalse(ParallelBagFinder.isIgnoredDirectory(root));
+    }
+
+    @Test
+    public void testSearchesDirectoriesNamedLikeBags() throws Exception {
+        Path root = folder.getRoot().toPath();
+        Files.createDirectories(root.resolve("run.bag"));
+        Path bag = Files.createFile(root.resolve("run.bag/1.bag"));
+
+        Set<File> found = Collections.synchronizedSet(new HashSet<>());
+        long count = new ParallelBagFinder(found::add, (dir, e) -> {}).find(root, 2);
+
+        assertEquals(1, count);
+        assertEquals(Collections.singleton(bag.toAbsolutePath().toFile()), found);
+    }
+
+    @Test
+    public void testReportsDirectoryContents() throws Exception {
+        Path root = folder.getRoot().toPath();
+        Files.createDirectories(root.resolve("a/b"));
+        Files.createDirectories(root.resolve("@eaDir"));
+        Files.createFile(root.resolve("a/1.bag"));
+
+        Map<Path, List<String>> subdirs = new ConcurrentHashMap<>();
+        Set<Path> emptyDirs = Collections.synchronizedSet(new HashSet<>());
+        new ParallelBagFinder(file -> {}, (dir, e) -> {}, (dir, names, isEmpty) -> {
+            subdirs.put(dir, names);
+            if (isEmpty) {
+                emptyDirs.add(dir);
+            }
+        }).find(root, 2);
+
+        assertEquals(Collections.singletonList("a"), subdirs.get(root));
+        assertEquals(Collections.singletonList("b"), subdirs.get(root.resolve("a")));
+        assertFalse(subdirs.containsKey(root.resolve("@eaDir")));
+        assertEquals(Collections.singleton(root.resolve("a/b")), emptyDirs);
+    }
+}
@@ -0,0 +1,78 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.bags.filesystem.watcher;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FileChangeSetTest {
+    private final Path myPath = Paths.get("/bags/new");
+
+    @Test
+    public void testCreateThenModifyIsCreated() {
+        FileChangeSet changes = new FileChangeSet();
+        changes.addEvent(ENTRY_CREATE, myPath);
+        changes.addEvent(ENTRY_MODIFY, myPath);
+
+        assertTrue(changes.getCreatedPaths().contains(myPath));
+        assertFalse(changes.getModifiedPaths().contains(myPath));
+        assertFalse(changes.getDeletedPaths().contains(myPath));
+    }
+
+    @Test
+    public void testDeleteThenCreateIsBoth() {
+        FileChangeSet changes = new FileChangeSet();
+        changes.addEvent(ENTRY_DELETE, myPath);
+        changes.addEvent(ENTRY_CREATE, myPath);
+
+        assertTrue(changes.getDeletedPaths().contains(myPath));
+        assertTrue(changes.getCreatedPaths().contains(myPath));
+        assertFalse(changes.getModifiedPaths().contains(myPath));
+    }
+
+    @Test
+    public void testCreateThenDeleteIsDeleted() {
+        FileChangeSet changes = new FileChangeSet();
+        changes.addEvent(ENTRY_CREATE, myPath);
+        changes.addEvent(ENTRY_MODIFY, myPath);
+        changes.addEvent(ENTRY_DELETE, myPath);
+
+        assertTrue(changes.getDeletedPaths().contains(myPath));
+        assertFalse(changes.getCreatedPaths().contains(myPath));
+        assertFalse(changes.getModifiedPaths().contains(myPath));
+    }
+}
@@ -0,0 +1,80 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.config;
+
+import com.github.swrirobotics.support.web.Configuration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class ConfigServiceTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ConfigService myConfigService;
+
+    @Before
+    public void setup() {
+        File settingsFile = new File(folder.getRoot(), "settings.yml");
+        myConfigService = new ConfigService();
+        ReflectionTestUtils.setField(myConfigService, "filename", settingsFile.toURI().toString());
+    }
+
+    @Test
+    public void testListenersGetPreviousSettings() throws Exception {
+        Configuration config = myConfigService.getConfigurationCopy();
+        config.setBagPath("/first");
+        myConfigService.setConfiguration(config);
+
+        List<Configuration[]> changes = new ArrayList<>();
+        myConfigService.registerConfigurationListener(
+                (oldConfig, newConfig) -> changes.add(new Configuration[]{oldConfig, newConfig}));
+
+        config = myConfigService.getConfigurationCopy();
+        config.setBagPath("/second");
+        myConfigService.setConfiguration(config);
+
+        assertEquals(1, changes.size());
+        assertNotNull(changes.get(0)[0]);
+        assertEquals("/first", changes.get(0)[0].getBagPath());
+        assertEquals("/second", changes.get(0)[1].getBagPath());
+        assertEquals("/second", myConfigService.getConfiguration().getBagPath());
+    }
+}
@@ -32,6 +32,9 @@ package com.github.swrirobotics.persistence;
 
 import com.github.swrirobotics.config.WebAppConfigurationAware;
 import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.PrecisionModel;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -39,8 +42,15 @@ import org.springframework.test.annotation.Rollback;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 @Rollback
 public class BagRepositoryTest extends WebAppConfigurationAware {
@@ -55,6 +65,10 @@ public class BagRepositoryTest extends WebAppConfigurationAware {
 
     private static final Logger myLogger = LoggerFactory.getLogger(BagRepositoryTest.class);
 
+    private static final String METADATA_TOPIC = "/metadata";
+    private final GeometryFactory myGeometryFactory =
+            new GeometryFactory(new PrecisionModel(PrecisionModel.FLOATING), 4326);
+
     @Transactional
     private Long insertBag() {
         Bag bag = new Bag();
@@ -114,4 +128,153 @@ public class BagRepositoryTest extends WebAppConfigurationAware {
         assertEquals(1, bag.getTags().size());
         assertEquals(1, bag.getMessageTypes().size());
     }
+
+    @Test
+    @Transactional
+    public void missingFieldsSkipsCheckedGpsPaths() {
+        Bag unchecked = insertBagWithoutFields("unchecked");
+        Bag noPath = insertBagWithoutFields("noPath");
+        noPath.setHasPath(false);
+        Bag hasPath = insertBagWithoutFields("hasPath");
+        hasPath.setHasPath(true);
+        bagRepository.saveAll(Arrays.asList(noPath, hasPath));
+
+        assertEquals(ids(unchecked), findMissing(false, true, false, false,
+                                                 unchecked, noPath, hasPath));
+    }
+
+    @Test
+    @Transactional
+    public void missingFieldsSkipsCoordinatesForBagsWithoutPaths() {
+        Bag unchecked = insertBagWithoutFields("unchecked");
+        Bag noPath = insertBagWithoutFields("noPath");
+        noPath.setHasPath(false);
+        Bag hasPath = insertBagWithoutFields("hasPath");
+        hasPath.setHasPath(true);
+        Bag hasCoordinate = insertBagWithoutFields("hasCoordinate");
+        hasCoordinate.setHasPath(true);
+        hasCoordinate.setCoordinate(myGeometryFactory.createPoint(new Coordinate(-98.6, 29.4)));
+        bagRepository.saveAll(Arrays.asList(noPath, hasPath, hasCoordinate));
+
+        assertEquals(ids(unchecked, hasPath), findMissing(true, false, false, false,
+                                                          unchecked, noPath, hasPath, hasCoordinate));
+    }
+
+    @Test
+    @Transactional
+    public void missingFieldsTreatsEmptyVehicleNamesAsChecked() {
+        Bag unchecked = insertBagWithoutFields("unchecked");
+        Bag noVehicle = insertBagWithoutFields("noVehicle");
+        noVehicle.setVehicle("");
+        Bag hasVehicle = insertBagWithoutFields("hasVehicle");
+        hasVehicle.setVehicle("Husky");
+        bagRepository.saveAll(Arrays.asList(noVehicle, hasVehicle));
+
+        assertEquals(ids(unchecked), findMissing(false, false, true, false,
+                                                 unchecked, noVehicle, hasVehicle));
+    }
+
+    @Test
+    @Transactional
+    public void missingFieldsOnlyFindsTagsForBagsWithMetadataTopics() {
+        Bag withMetadata = insertBagWithoutFields("withMetadata");
+        addTopic(withMetadata, METADATA_TOPIC);
+        Bag withoutMetadata = insertBagWithoutFields("withoutMetadata");
+        addTopic(withoutMetadata, "/other");
+        Bag withTags = insertBagWithoutFields("withTags");
+        addTopic(withTags, METADATA_TOPIC);
+        Tag tag = new Tag();
+        tag.setTag("operator");
+        tag.setValue("Orange Team");
+        tag.setBag(withTags);
+        withTags.getTags().add(tag);
+        bagRepository.save(withTags);
+
+        assertEquals(ids(withMetadata), findMissing(false, false, false, true,
+                                                    withMetadata, withoutMetadata, withTags));
+    }
+
+    @Test
+    @Transactional
+    public void missingFieldsFindsNoTagsWithoutMetadataTopics() {
+        Bag withMetadata = insertBagWithoutFields("withMetadata");
+        addTopic(withMetadata, METADATA_TOPIC);
+
+        List<Bag> bags = bagRepository.findByIdBetweenMissingFields(
+                withMetadata.getId(), withMetadata.getId(), false, false, false, true,
+                Collections.emptyList());
+
+        assertTrue(bags.isEmpty());
+    }
+
+    @Test
+    @Transactional
+    public void missingFieldsSkipsMissingBags() {
+        Bag present = insertBagWithoutFields("present");
+        Bag missing = insertBagWithoutFields("missing");
+        missing.setMissing(true);
+        bagRepository.save(missing);
+
+        assertEquals(ids(present), findMissing(true, true, true, false, present, missing));
+    }
+
+    /**
+     * Inserts a bag that hasn't been checked for any derived fields.
+     */
+    private Bag insertBagWithoutFields(String md5sum) {
+        Bag bag = new Bag();
+        bag.setMd5sum(md5sum);
+        bag.setCreatedOn(new Timestamp(System.currentTimeMillis()));
+        bag.setDuration(0.0);
+        bag.setStartTime(new Timestamp(System.currentTimeMillis()));
+        bag.setEndTime(new Timestamp(System.currentTimeMillis()));
+        bag.setFilename(md5sum + ".bag");
+        bag.setPath("/test/");
+        bag.setVersion("2.0");
+        bag.setCompressed(false);
+        bag.setIndexed(true);
+        bag.setMessageCount(0L);
+        bag.setMissing(false);
+        bag.setSize(0L);
+        return bagRepository.save(bag);
+    }
+
+    private void addTopic(Bag bag, String topicName) {
+        MessageType mt = mtRepository.findById(makeMessageTypeKey()).orElseGet(() -> {
+            MessageType newType = new MessageType();
+            newType.setName("TestMessage");
+            newType.setMd5sum("testmd5sum");
+            return mtRepository.save(newType);
+        });
+
+        Topic topic = new Topic();
+        topic.setBag(bag);
+        topic.setMessageCount(0L);
+        topic.setType(mt);
+        topic.setConnectionCount(0L);
+        topic.setTopicName(topicName);
+        topic = topicRepository.save(topic);
+        bag.getTopics().add(topic);
+    }
+
+    private static MessageTypeKey makeMessageTypeKey() {
+        MessageTypeKey key = new MessageTypeKey();
+        key.name = "TestMessage";
+        key.md5sum = "testmd5sum";
+        return key;
+    }
+
+    private Set<Long> findMissing(boolean coordinate, boolean gpsPath, boolean vehicleName,
+                                  boolean tags, Bag... bags) {
+        Set<Long> bagIds = ids(bags);
+        Collection<String> metadataTopics = Collections.singletonList(METADATA_TOPIC);
+        return bagRepository.findByIdBetweenMissingFields(
+                Collections.min(bagIds), Collections.max(bagIds),
+                coordinate, gpsPath, vehicleName, tags, metadataTopics)
+                .stream().map(Bag::getId).collect(Collectors.toSet());
+    }
+
+    private static Set<Long> ids(Bag... bags) {
+        return Arrays.stream(bags).map(Bag::getId).collect(Collectors.toSet());
+    }
 }
@@ -0,0 +1,113 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.remote;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class PlaceKdTreeTest {
+    @Test
+    public void testFindsNearestPlace() {
+        List<String> names = new ArrayList<>();
+        names.add("San Antonio");
+        names.add("Austin");
+        names.add("Houston");
+        PlaceKdTree tree = new PlaceKdTree(names,
+                                           new double[]{29.4241, 30.2672, 29.7604},
+                                           new double[]{-98.4936, -97.7431, -95.3698});
+
+        assertEquals("San Antonio", tree.findNearest(29.5, -98.6, 100.0));
+        assertEquals("Austin", tree.findNearest(30.3, -97.8, 100.0));
+        assertEquals("Houston", tree.findNearest(29.7, -95.4, 100.0));
+    }
+
+    @Test
+    public void testIgnoresDistantPlaces() {
+        List<String> names = new ArrayList<>();
+        names.add("San Antonio");
+        PlaceKdTree tree = new PlaceKdTree(names, new double[]{29.4241}, new double[]{-98.4936});
+
+        assertNull(tree.findNearest(40.0, -75.0, 100.0));
+    }
+
+    @Test
+    public void testAcrossAntimeridian() {
+        List<String> names = new ArrayList<>();
+        names.add("East");
+        names.add("Far West");
+        PlaceKdTree tree = new PlaceKdTree(names, new double[]{0.0, 0.0}, new double[]{179.9, -170.0});
+
+        assertEquals("East", tree.findNearest(0.0, -179.9, 100.0));
+    }
+
+    @Test
+    public void testMatchesBruteForce() {
+        Random random = new Random(42);
+        int count = 5000;
+        List<String> names = new ArrayList<>();
+        double[] lats = new double[count];
+        double[] lons = new double[count];
+        for (int i = 0; i < count; i++) {
+            names.add(Integer.toString(i));
+            lats[i] = random.nextDouble() * 180.0 - 90.0;
+            lons[i] = random.nextDouble() * 360.0 - 180.0;
+        }
+        PlaceKdTree tree = new PlaceKdTree(names, lats, lons);
+
+        for (int q = 0; q < 200; q++) {
+            double lat = random.nextDouble() * 180.0 - 90.0;
+            double lon = random.nextDouble() * 360.0 - 180.0;
+            int nearest = 0;
+            for (int i = 1; i < count; i++) {
+                if (angle(lat, lon, lats[i], lons[i]) < angle(lat, lon, lats[nearest], lons[nearest])) {
+                    nearest = i;
+                }
+            }
+            assertEquals(Integer.toString(nearest), tree.findNearest(lat, lon, 20000.0));
+        }
+    }
+
+    private static double angle(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double dPhi = phi2 - phi1;
+        double dLambda = Math.toRadians(lon2 - lon1);
+        double h = Math.pow(Math.sin(dPhi / 2), 2) +
+                Math.cos(phi1) * Math.cos(phi2) * Math.pow(Math.sin(dLambda / 2), 2);
+        return 2 * Math.asin(Math.sqrt(h));
+    }
+}
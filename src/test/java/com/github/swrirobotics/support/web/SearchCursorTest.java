@@ -0,0 +1,85 @@
+// *****************************************************************************
+//
+// Copyright (c) 2020, Southwest Research Institute® (SwRI®)
+// All rights reserved.
+//
+// Redistribution and use in source and binary forms, with or without
+// modification, are permitted provided that the following conditions are met:
+//     * Redistributions of source code must retain the above copyright
+//       notice, this list of conditions and the following disclaimer.
+//     * Redistributions in binary form must reproduce the above copyright
+//       notice, this list of conditions and the following disclaimer in the
+//       documentation and/or other materials provided with the distribution.
+//     * Neither the name of Southwest Research Institute® (SwRI®) nor the
+//       names of its contributors may be used to endorse or promote products
+//       derived from this software without specific prior written permission.
+//
+// THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+// AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+// IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+// ARE DISCLAIMED. IN NO EVENT SHALL Southwest Research Institute® BE LIABLE
+// FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+// DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+// SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+// CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+// LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+// OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH
+// DAMAGE.
+//
+// *****************************************************************************
+
+package com.github.swrirobotics.support.web;
+
+import org.junit.Test;
+
+import java.sql.Timestamp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SearchCursorTest {
+    @Test
+    public void testStringValue() {
+        SearchCursor cursor = SearchCursor.valueOf(SearchCursor.of(42, "a:b.bag").toString());
+        assertEquals(42, cursor.getId());
+        assertEquals("a:b.bag", cursor.getValue(String.class));
+    }
+
+    @Test
+    public void testNullValue() {
+        SearchCursor cursor = SearchCursor.valueOf(SearchCursor.of(7, null).toString());
+        assertEquals(7, cursor.getId());
+        assertNull(cursor.getValue(String.class));
+    }
+
+    @Test
+    public void testEmptyValueIsNotNull() {
+        SearchCursor cursor = SearchCursor.valueOf(SearchCursor.of(7, "").toString());
+        assertEquals("", cursor.getValue(String.class));
+    }
+
+    @Test
+    public void testTimestampKeepsNanoseconds() {
+        Timestamp ts = new Timestamp(1600000000123L);
+        ts.setNanos(123456789);
+        SearchCursor cursor = SearchCursor.valueOf(SearchCursor.of(1, ts).toString());
+        assertEquals(ts, cursor.getValue(Timestamp.class));
+    }
+
+    @Test
+    public void testNumbers() {
+        assertEquals(12.5, SearchCursor.valueOf("1:12.5").getValue(Double.class));
+        assertEquals(1024L, SearchCursor.valueOf("1:1024").getValue(Long.class));
+        assertEquals(true, SearchCursor.valueOf("1:true").getValue(Boolean.class));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidId() {
+        SearchCursor.valueOf("abc:def");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidValue() {
+        SearchCursor.valueOf("1:abc").getValue(Long.class);
+    }
+}